@@ -19,6 +19,9 @@
 package icyllis.modernui.mc;
 
 import com.mojang.blaze3d.resource.GraphicsResourceAllocator;
+import com.mojang.blaze3d.systems.RenderSystem;
+import com.mojang.blaze3d.textures.GpuTexture;
+import com.mojang.blaze3d.textures.TextureFormat;
 import icyllis.modernui.animation.ColorEvaluator;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.GuiGraphicsExtractor;
@@ -28,6 +31,7 @@ import net.minecraft.client.gui.screens.Screen;
 import net.minecraft.client.renderer.*;
 import net.minecraft.resources.Identifier;
 import net.minecraft.sounds.SoundSource;
+import net.minecraft.util.Util;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.Marker;
 import org.apache.logging.log4j.MarkerManager;
@@ -48,6 +52,15 @@ public enum BlurHandler {
     private static final Marker MARKER = MarkerManager.getMarker("Blur");
     private static final Identifier GAUSSIAN_BLUR =
             ModernUIMod.location("gaussian_blur");
+    /**
+     * Dual Kawase blur chains with 1 to 4 downsample levels.
+     */
+    private static final Identifier[] DUAL_KAWASE_BLUR = {
+            ModernUIMod.location("dual_kawase_blur_1"),
+            ModernUIMod.location("dual_kawase_blur_2"),
+            ModernUIMod.location("dual_kawase_blur_3"),
+            ModernUIMod.location("dual_kawase_blur_4")
+    };
 
     /**
      * Config values
@@ -57,6 +70,7 @@ public enum BlurHandler {
     public static volatile boolean sBlurForVanillaScreens;
     public static volatile boolean sOverrideVanillaBlur;
     public static volatile int sBlurRadius;
+    public static volatile boolean sDualKawaseBlur;
     public static volatile int sBackgroundDuration; // milliseconds
     public static volatile int[] sBackgroundColor = new int[4];
 
@@ -92,10 +106,29 @@ public enum BlurHandler {
 
     private float mVolumeMultiplier = 1;
 
+    /**
+     * The world image doesn't change while the game is paused, except for option changes,
+     * so the blurred result is reused and refreshed only at this interval.
+     */
+    private static final long BACKDROP_REFRESH_MILLIS = 500;
+
+    // cached blurred backdrop, render thread
+    @Nullable
+    private GpuTexture mBackdrop;
+    private boolean mBackdropValid;
+    private long mBackdropTimeMillis;
+    private int mBackdropRadius;
+    @Nullable
+    private Identifier mBackdropEffect;
+
     /**
      * Use blur shader in game renderer post-processing.
      */
     public void blur(@Nullable Screen nextScreen) {
+        if (nextScreen == null || minecraft.level == null) {
+            // nothing to blur until the next screen
+            closeBackdrop();
+        }
         if (minecraft.level == null) {
             return;
         }
@@ -148,6 +181,8 @@ public enum BlurHandler {
             mFadingIn = false;
         }
         mHasScreen = hasScreen;
+        // the next screen may have a different background
+        mBackdropValid = false;
     }
 
     @SuppressWarnings("unchecked")
@@ -178,6 +213,10 @@ public enum BlurHandler {
      * Render tick, should called before rendering things
      */
     public void onRenderTick(long elapsedTimeMillis) {
+        if (mBackdrop != null && !minecraft.isPaused()) {
+            // resumed, the cached backdrop can't be used any more
+            closeBackdrop();
+        }
         if (mFadingIn) {
             float p = Math.min((float) elapsedTimeMillis / sBackgroundDuration, 1.0f);
             if (mBlurring) {
@@ -248,6 +287,9 @@ public enum BlurHandler {
         }
     }
 
+    // the radius of the current frame, updated before processBlurEffect()
+    private int mLastBlurRadius;
+
     // INTERNAL HOOK
     public int getBlurRadius(int option) {
         float radius;
@@ -266,15 +308,81 @@ public enum BlurHandler {
                 radius = option;
             }
         }
-        return (int) radius;
+        return mLastBlurRadius = (int) radius;
     }
 
     // INTERNAL HOOK
     public void processBlurEffect(GraphicsResourceAllocator resourceAllocator) {
+        final Identifier effect;
+        if (sDualKawaseBlur) {
+            // each level doubles the reach, the shader scales the sample offset
+            // by radius / 2^levels, within [1, 2]
+            int levels = 32 - Integer.numberOfLeadingZeros(Math.max(mLastBlurRadius - 1, 1)) - 1;
+            effect = DUAL_KAWASE_BLUR[Math.clamp(levels, 1, DUAL_KAWASE_BLUR.length) - 1];
+        } else {
+            effect = GAUSSIAN_BLUR;
+        }
+        final GpuTexture color = minecraft.getMainRenderTarget().getColorTexture();
+        // the world is static only if the game is paused, a running world
+        // keeps changing even if the camera doesn't move
+        final boolean cacheable = color != null && minecraft.isPaused() && !mFadingIn;
+        final long now = Util.getMillis();
+        if (cacheable && mBackdropValid && mBackdrop != null &&
+                mBackdrop.getWidth(0) == color.getWidth(0) &&
+                mBackdrop.getHeight(0) == color.getHeight(0) &&
+                mBackdropRadius == mLastBlurRadius && mBackdropEffect == effect &&
+                now - mBackdropTimeMillis < BACKDROP_REFRESH_MILLIS) {
+            RenderSystem.getDevice().createCommandEncoder()
+                    .copyTextureToTexture(mBackdrop, color,
+                            0,
+                            0, 0,
+                            0, 0,
+                            color.getWidth(0), color.getHeight(0));
+            return;
+        }
         PostChain blurEffect = minecraft.getShaderManager().getPostChain(
-                GAUSSIAN_BLUR, LevelTargetBundle.MAIN_TARGETS);
+                effect, LevelTargetBundle.MAIN_TARGETS);
         if (blurEffect != null) {
             blurEffect.process(minecraft.getMainRenderTarget(), resourceAllocator);
+        } else {
+            mBackdropValid = false;
+            return;
+        }
+        if (cacheable) {
+            final int width = color.getWidth(0);
+            final int height = color.getHeight(0);
+            if (mBackdrop == null || mBackdrop.isClosed() ||
+                    mBackdrop.getWidth(0) != width || mBackdrop.getHeight(0) != height) {
+                closeBackdrop();
+                mBackdrop = RenderSystem.getDevice().createTexture(
+                        "ModernUI_MC_BlurBackdrop",
+                        GpuTexture.USAGE_COPY_DST | GpuTexture.USAGE_COPY_SRC,
+                        TextureFormat.RGBA8,
+                        width, height,
+                        1, 1
+                );
+            }
+            RenderSystem.getDevice().createCommandEncoder()
+                    .copyTextureToTexture(color, mBackdrop,
+                            0,
+                            0, 0,
+                            0, 0,
+                            width, height);
+            mBackdropValid = true;
+            mBackdropTimeMillis = now;
+            mBackdropRadius = mLastBlurRadius;
+            mBackdropEffect = effect;
+        } else if (mBackdrop != null) {
+            // free the memory once the game is resumed
+            closeBackdrop();
+        }
+    }
+
+    private void closeBackdrop() {
+        if (mBackdrop != null) {
+            mBackdrop.close();
+            mBackdrop = null;
         }
+        mBackdropValid = false;
     }
 }
@@ -95,6 +95,7 @@ public final class Config {
         public final ConfigItem<Boolean> mOverrideVanillaBlur;
         public final ConfigItem<Integer> mBackgroundDuration;
         public final ConfigItem<Integer> mBlurRadius;
+        public final ConfigItem<Boolean> mDualKawaseBlur;
         public final ConfigItem<List<? extends String>> mBackgroundColor;
         public final ConfigItem<Boolean> mInventoryPause;
         public final ConfigItem<Boolean> mTooltip;
@@ -123,6 +124,8 @@ public final class Config {
         public final ConfigItem<Boolean> mUseNewGuiScale;
         public final ConfigItem<Boolean> mRemoveTelemetry;
         public final ConfigItem<Integer> mFramerateInactive;
+        public final ConfigItem<Integer> mUiFrameLatency;
+        public final ConfigItem<Boolean> mFrameTimingOverlay;
         public final ConfigItem<Double> mMasterVolumeInactive;
         public final ConfigItem<Double> mMasterVolumeMinimized;
         public final ConfigItem<Boolean> mGlobalVolumeControl;
@@ -166,6 +169,7 @@ public final class Config {
             mOverrideVanillaBlur = get(map, "mOverrideVanillaBlur");
             mBackgroundDuration = get(map, "mBackgroundDuration");
             mBlurRadius = get(map, "mBlurRadius");
+            mDualKawaseBlur = get(map, "mDualKawaseBlur");
             mBackgroundColor = get(map, "mBackgroundColor");
             mInventoryPause = get(map, "mInventoryPause");
             mTooltip = get(map, "mTooltip");
@@ -194,6 +198,8 @@ public final class Config {
             mUseNewGuiScale = get(map, "mUseNewGuiScale");
             mRemoveTelemetry = get(map, "mRemoveTelemetry");
             mFramerateInactive = get(map, "mFramerateInactive");
+            mUiFrameLatency = get(map, "mUiFrameLatency");
+            mFrameTimingOverlay = get(map, "mFrameTimingOverlay");
             mMasterVolumeInactive = get(map, "mMasterVolumeInactive");
             mMasterVolumeMinimized = get(map, "mMasterVolumeMinimized");
             mGlobalVolumeControl = get(map, "mGlobalVolumeControl");
@@ -249,8 +255,11 @@ public final class Config {
             BlurHandler.sOverrideVanillaBlur = mOverrideVanillaBlur.get();
             BlurHandler.sBackgroundDuration = mBackgroundDuration.get();
             BlurHandler.sBlurRadius = mBlurRadius.get();
+            BlurHandler.sDualKawaseBlur = mDualKawaseBlur.get();
 
             BlurHandler.sFramerateInactive = mFramerateInactive.get();
+            UIManager.sMaxFrameLatency = mUiFrameLatency.get();
+            FrameTimings.sShowOverlay = mFrameTimingOverlay.get();
             /*BlurHandler.sFramerateMinimized = Math.min(
                     mFramerateMinimized.get(),
                     BlurHandler.sFramerateInactive
@@ -553,6 +562,10 @@ public final class Config {
         public final ConfigItem<Boolean> mComputeDeviceFontSize;
         public final ConfigItem<Boolean> mAllowSDFTextIn2D;
         public final ConfigItem<Boolean> mTweakExperienceText;
+        public final ConfigItem<Boolean> mCachedChatLayer;
+        public final ConfigItem<Boolean> mRetainWorldTextMesh;
+        public final ConfigItem<Integer> mWorldTextSimplifyHeight;
+        public final ConfigItem<Integer> mWorldTextCullHeight;
         public final ConfigItem<Boolean> mAntiAliasing;
         public final ConfigItem<Boolean> mLinearMetrics;
         public final ConfigItem<Integer> mMinPixelDensityForSDF;
@@ -582,6 +595,10 @@ public final class Config {
             mComputeDeviceFontSize = get(map, "mComputeDeviceFontSize");
             mAllowSDFTextIn2D = get(map, "mAllowSDFTextIn2D");
             mTweakExperienceText = get(map, "mTweakExperienceText");
+            mCachedChatLayer = get(map, "mCachedChatLayer");
+            mRetainWorldTextMesh = get(map, "mRetainWorldTextMesh");
+            mWorldTextSimplifyHeight = get(map, "mWorldTextSimplifyHeight");
+            mWorldTextCullHeight = get(map, "mWorldTextCullHeight");
             mAntiAliasing = get(map, "mAntiAliasing");
             mLinearMetrics = get(map, "mLinearMetrics");
             mMinPixelDensityForSDF = get(map, "mMinPixelDensityForSDF");
@@ -655,6 +672,10 @@ public final class Config {
             ModernTextRenderer.sComputeDeviceFontSize = mComputeDeviceFontSize.get();
             ModernTextRenderer.sAllowSDFTextIn2D = mAllowSDFTextIn2D.get();
             ModernTextRenderer.sTweakExperienceText = mTweakExperienceText.get();
+            ModernTextRenderer.sCachedChatLayer = mCachedChatLayer.get();
+            ModernTextRenderer.sRetainWorldTextMesh = mRetainWorldTextMesh.get();
+            ModernTextRenderer.sWorldTextSimplifyHeight = mWorldTextSimplifyHeight.get();
+            ModernTextRenderer.sWorldTextCullHeight = mWorldTextCullHeight.get();
 
             if (GlyphManager.sAntiAliasing != mAntiAliasing.get()) {
                 GlyphManager.sAntiAliasing = mAntiAliasing.get();
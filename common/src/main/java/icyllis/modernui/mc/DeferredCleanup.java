@@ -0,0 +1,136 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2025 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.mc;
+
+import icyllis.modernui.text.TextUtils;
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.MarkerManager;
+
+import javax.annotation.Nonnull;
+import java.io.PrintWriter;
+
+import static icyllis.modernui.mc.ModernUIMod.LOGGER;
+
+/**
+ * Schedules deferred cleanup of a resource cache by its memory pressure, instead of a
+ * fixed timer. The interval shrinks from the max interval to the min interval as the
+ * pressure (used bytes over budget) rises from {@link #LOW_PRESSURE} to {@link #HIGH_PRESSURE},
+ * and nothing is done while there is nothing reclaimable.
+ * <p>
+ * An instance is used by a single thread, {@link #dump(PrintWriter)} may be called from others.
+ */
+public final class DeferredCleanup {
+
+    private static final Marker MARKER = MarkerManager.getMarker("Cleanup");
+
+    public static final double LOW_PRESSURE = 0.5;
+    public static final double HIGH_PRESSURE = 0.9;
+
+    private final String mName;
+    private final long mMinIntervalMillis;
+    private final long mMaxIntervalMillis;
+
+    private long mLastCleanupNanos = System.nanoTime();
+    private volatile double mPressure;
+
+    private volatile int mCleanupCount;
+    private volatile long mLastFreedBytes;
+    private volatile long mTotalFreedBytes;
+
+    public DeferredCleanup(@Nonnull String name, long minIntervalMillis, long maxIntervalMillis) {
+        mName = name;
+        mMinIntervalMillis = minIntervalMillis;
+        mMaxIntervalMillis = maxIntervalMillis;
+    }
+
+    /**
+     * Check if a cleanup is due, call this every frame.
+     *
+     * @param usedBytes   the bytes currently held
+     * @param budgetBytes the bytes allowed to hold, or 0 if unbounded
+     * @param reclaimable whether there's anything that can be freed
+     * @return true to perform cleanup now, then call {@link #onCleanup(long, long)}
+     */
+    public boolean shouldCleanup(long usedBytes, long budgetBytes, boolean reclaimable) {
+        return shouldCleanup(budgetBytes > 0 ? (double) usedBytes / budgetBytes : 0, reclaimable);
+    }
+
+    /**
+     * Check if a cleanup is due, call this every frame.
+     *
+     * @param pressure    the used fraction of the budget
+     * @param reclaimable whether there's anything that can be freed
+     * @return true to perform cleanup now, then call {@link #onCleanup(long, long)}
+     */
+    public boolean shouldCleanup(double pressure, boolean reclaimable) {
+        mPressure = pressure;
+        if (!reclaimable) {
+            return false;
+        }
+        final long now = System.nanoTime();
+        if ((now - mLastCleanupNanos) / 1000000 < getIntervalMillis()) {
+            return false;
+        }
+        mLastCleanupNanos = now;
+        return true;
+    }
+
+    /**
+     * @return the current cleanup interval, depending on the last pressure
+     */
+    public long getIntervalMillis() {
+        final double t = (mPressure - LOW_PRESSURE) / (HIGH_PRESSURE - LOW_PRESSURE);
+        if (t <= 0) {
+            return mMaxIntervalMillis;
+        }
+        if (t >= 1) {
+            return mMinIntervalMillis;
+        }
+        return mMaxIntervalMillis - (long) ((mMaxIntervalMillis - mMinIntervalMillis) * t);
+    }
+
+    /**
+     * @return resources not used for this long should be freed by the cleanup
+     */
+    public long getNotUsedMillis() {
+        return getIntervalMillis() * 6;
+    }
+
+    /**
+     * Report the result of a cleanup.
+     */
+    public void onCleanup(long usedBytesBefore, long usedBytesAfter) {
+        final long freed = Math.max(usedBytesBefore - usedBytesAfter, 0);
+        mCleanupCount++;
+        mLastFreedBytes = freed;
+        mTotalFreedBytes += freed;
+        if (freed > 0) {
+            LOGGER.debug(MARKER, "{}: freed {} ({} bytes), {} in use, pressure {}",
+                    mName, TextUtils.binaryCompact(freed), freed,
+                    TextUtils.binaryCompact(usedBytesAfter), String.format("%.2f", mPressure));
+        }
+    }
+
+    public void dump(@Nonnull PrintWriter pw) {
+        pw.printf("%s Cleanup: Pressure=%.2f, Interval=%dms, Count=%d, LastFreed=%s, TotalFreed=%s\n",
+                mName, mPressure, getIntervalMillis(), mCleanupCount,
+                TextUtils.binaryCompact(mLastFreedBytes),
+                TextUtils.binaryCompact(mTotalFreedBytes));
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2025 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.mc;
+
+import it.unimi.dsi.fastutil.chars.CharArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import javax.annotation.Nonnull;
+import java.util.*;
+
+/**
+ * Immutable case-insensitive prefix index of emoji shortcodes. This is a trie stored in
+ * flat arrays, children of a node are contiguous and sorted by label. Since shortcodes
+ * are sorted as well, the shortcodes starting with the prefix of a node are a contiguous
+ * range, so a prefix query costs O(prefix length + results).
+ */
+final class EmojiShortcodeIndex {
+
+    static final EmojiShortcodeIndex EMPTY = new EmojiShortcodeIndex(Collections.emptyList());
+
+    /**
+     * Shortcodes with colons, sorted by their lower case form.
+     */
+    private final String[] mShortcodes;
+    private final int mMaxLength;
+
+    private final char[] mLabels;
+    private final int[] mFirstChild;
+    private final int[] mChildCount;
+    // shortcodes with the prefix of the node are [start, end)
+    private final int[] mRangeStart;
+    private final int[] mRangeEnd;
+
+    EmojiShortcodeIndex(@Nonnull Collection<String> shortcodes) {
+        final int n = shortcodes.size();
+        final String[] keys = new String[n];
+        final String[] lowerKeys = new String[n];
+        {
+            final Integer[] order = new Integer[n];
+            final String[] source = shortcodes.toArray(new String[0]);
+            final String[] lower = new String[n];
+            for (int i = 0; i < n; i++) {
+                order[i] = i;
+                lower[i] = source[i].toLowerCase(Locale.ROOT);
+            }
+            Arrays.sort(order, Comparator.comparing((Integer i) -> lower[i]));
+            for (int i = 0; i < n; i++) {
+                keys[i] = source[order[i]];
+                lowerKeys[i] = lower[order[i]];
+            }
+        }
+        mShortcodes = keys;
+        int maxLength = 0;
+        for (String key : keys) {
+            maxLength = Math.max(maxLength, key.length());
+        }
+        mMaxLength = maxLength;
+
+        final var labels = new CharArrayList();
+        final var firstChild = new IntArrayList();
+        final var childCount = new IntArrayList();
+        final var rangeStart = new IntArrayList();
+        final var rangeEnd = new IntArrayList();
+        final var depths = new IntArrayList();
+        // root
+        labels.add('\0');
+        firstChild.add(0);
+        childCount.add(0);
+        rangeStart.add(0);
+        rangeEnd.add(n);
+        depths.add(0);
+        // breadth-first, so that children of a node are appended contiguously
+        for (int node = 0; node < labels.size(); node++) {
+            final int depth = depths.getInt(node);
+            final int end = rangeEnd.getInt(node);
+            int i = rangeStart.getInt(node);
+            // a shortcode ending at this node sorts before its extensions
+            while (i < end && lowerKeys[i].length() == depth) {
+                i++;
+            }
+            firstChild.set(node, labels.size());
+            int count = 0;
+            while (i < end) {
+                final char c = lowerKeys[i].charAt(depth);
+                int j = i + 1;
+                while (j < end && lowerKeys[j].charAt(depth) == c) {
+                    j++;
+                }
+                labels.add(c);
+                firstChild.add(0);
+                childCount.add(0);
+                rangeStart.add(i);
+                rangeEnd.add(j);
+                depths.add(depth + 1);
+                count++;
+                i = j;
+            }
+            childCount.set(node, count);
+        }
+        mLabels = labels.toCharArray();
+        mFirstChild = firstChild.toIntArray();
+        mChildCount = childCount.toIntArray();
+        mRangeStart = rangeStart.toIntArray();
+        mRangeEnd = rangeEnd.toIntArray();
+    }
+
+    /**
+     * @return the node of the given prefix, or -1 if no shortcode starts with it
+     */
+    private int findNode(@Nonnull CharSequence prefix) {
+        int node = 0;
+        for (int i = 0, e = prefix.length(); i < e; i++) {
+            final char c = Character.toLowerCase(prefix.charAt(i));
+            int lo = mFirstChild[node];
+            int hi = lo + mChildCount[node] - 1;
+            node = -1;
+            while (lo <= hi) {
+                final int mid = (lo + hi) >>> 1;
+                final char label = mLabels[mid];
+                if (label < c) {
+                    lo = mid + 1;
+                } else if (label > c) {
+                    hi = mid - 1;
+                } else {
+                    node = mid;
+                    break;
+                }
+            }
+            if (node < 0) {
+                return -1;
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Find shortcodes that start with the given prefix, ignoring case.
+     *
+     * @param prefix    the prefix including the leading colon
+     * @param limit     the maximum number of results
+     * @param preferred shortcodes to rank first if they match, in order
+     * @return up to <var>limit</var> shortcodes, preferred ones first, then in alphabetical order
+     */
+    @Nonnull
+    List<String> suggest(@Nonnull CharSequence prefix, int limit,
+                         @Nonnull Collection<String> preferred) {
+        final int node = findNode(prefix);
+        if (node < 0 || limit <= 0) {
+            return Collections.emptyList();
+        }
+        final int start = mRangeStart[node];
+        final int end = mRangeEnd[node];
+        final var result = new ArrayList<String>(Math.min(limit, end - start));
+        final String prefixString = prefix.toString();
+        final int prefixLength = prefixString.length();
+        for (String shortcode : preferred) {
+            if (shortcode.length() >= prefixLength &&
+                    shortcode.regionMatches(true, 0, prefixString, 0, prefixLength)) {
+                result.add(shortcode);
+                if (result.size() == limit) {
+                    return result;
+                }
+            }
+        }
+        final int numPreferred = result.size();
+        for (int i = start; i < end; i++) {
+            final String shortcode = mShortcodes[i];
+            if (numPreferred != 0 && result.subList(0, numPreferred).contains(shortcode)) {
+                continue;
+            }
+            result.add(shortcode);
+            if (result.size() == limit) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    int size() {
+        return mShortcodes.length;
+    }
+
+    int getMaxLength() {
+        return mMaxLength;
+    }
+}
@@ -27,17 +27,19 @@ import icyllis.modernui.mc.text.TextLayoutEngine;
 import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 import it.unimi.dsi.fastutil.ints.IntSet;
 import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.resources.Identifier;
 import net.minecraft.server.packs.resources.PreparableReloadListener;
 import net.minecraft.server.packs.resources.ResourceManager;
 import net.minecraft.util.profiling.Profiler;
 import net.minecraft.util.profiling.ProfilerFiller;
-import org.jetbrains.annotations.Unmodifiable;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
 
 import static icyllis.modernui.mc.ModernUIMod.LOGGER;
 
@@ -67,12 +69,23 @@ public class FontResourceManager implements PreparableReloadListener {
     public static final int BITMAP_SCALE = 8;
 
     protected EmojiFont mEmojiFont;
+    /**
+     * The emoji images the current emoji font was created from, see {@link #loadEmojis}.
+     */
+    protected List<String> mEmojiFingerprint = Collections.emptyList();
 
     /**
      * Shortcodes to Emoji char sequences.
      */
     protected final HashMap<String, String> mEmojiShortcodes = new HashMap<>();
-    protected final HashMap<Character, List<String>> mPrefixedEmojiShortcodes = new HashMap<>();
+    protected EmojiShortcodeIndex mEmojiShortcodeIndex = EmojiShortcodeIndex.EMPTY;
+    /**
+     * Recently used shortcodes, most recent first, they are ranked first in suggestions.
+     */
+    protected final ArrayDeque<String> mRecentEmojiShortcodes = new ArrayDeque<>();
+
+    public static final int MAX_RECENT_EMOJI_SHORTCODES = 16;
+    public static final int MAX_EMOJI_SHORTCODE_SUGGESTIONS = 100;
 
     protected FontResourceManager() {
     }
@@ -146,39 +159,63 @@ public class FontResourceManager implements PreparableReloadListener {
 
     public static class LoadResults {
         public volatile EmojiFont mEmojiFont;
+        public volatile List<String> mEmojiFingerprint = Collections.emptyList();
         public volatile Map<String, String> mEmojiShortcodes = Collections.emptyMap();
-        public volatile Map<Character, List<String>> mPrefixedEmojiShortcodes = Collections.emptyMap();
+        public volatile EmojiShortcodeIndex mEmojiShortcodeIndex = EmojiShortcodeIndex.EMPTY;
     }
 
     // SYNC
     protected void applyResources(@Nonnull LoadResults results) {
-        // reload emojis
-        mEmojiFont = results.mEmojiFont;
+        applyEmojisAndTypeface(results);
+        reloadAll();
+    }
+
+    // SYNC
+    protected final void applyEmojisAndTypeface(@Nonnull LoadResults results) {
+        // reload emojis, keep the current emoji font if its images are not changed,
+        // so that glyphs already in the emoji atlas can be reused
+        if (mEmojiFont == null || results.mEmojiFont == null ||
+                !mEmojiFingerprint.equals(results.mEmojiFingerprint)) {
+            mEmojiFont = results.mEmojiFont;
+        }
+        mEmojiFingerprint = results.mEmojiFingerprint;
         mEmojiShortcodes.clear();
         mEmojiShortcodes.putAll(results.mEmojiShortcodes);
-        mPrefixedEmojiShortcodes.clear();
-        mPrefixedEmojiShortcodes.putAll(results.mPrefixedEmojiShortcodes);
-        // reload the whole engine
+        mEmojiShortcodeIndex = results.mEmojiShortcodeIndex;
+        // reload the typeface, which includes the emoji font
         try {
             ModernUIClient.getInstance().reloadTypeface();
         } catch (IllegalStateException ignored) {
             // happen in broken mod state
         }
-        reloadAll();
     }
 
     // SYNC, close native resources
     public void close() {
     }
 
+    /**
+     * Identify a resource file by its source pack and content, so that a change is detected
+     * by the next reload, even if the file is edited within the same pack.
+     */
+    @Nonnull
+    protected static String getFingerprint(@Nonnull Identifier location, @Nonnull String sourcePackId,
+                                           @Nonnull byte[] data) {
+        var checksum = new CRC32();
+        checksum.update(data);
+        return location + "@" + sourcePackId + "/" + data.length + "/" +
+                Long.toHexString(checksum.getValue());
+    }
+
     // ASYNC
     protected static void loadEmojis(@Nonnull ResourceManager resources,
                                      @Nonnull LoadResults results) {
         final var map = new Object2IntOpenHashMap<CharSequence>();
         final var files = new ArrayList<String>();
+        final var images = resources.listResources("emoji",
+                res -> res.getPath().endsWith(".png"));
         CYCLE:
-        for (var image : resources.listResources("emoji",
-                res -> res.getPath().endsWith(".png")).keySet()) {
+        for (var image : images.keySet()) {
             var path = image.getPath().split("/");
             if (path.length == 0) {
                 continue;
@@ -230,6 +267,18 @@ public class FontResourceManager implements PreparableReloadListener {
                     GlyphManager.EMOJI_SPACING,
                     GlyphManager.EMOJI_BASE,
                     map, files);
+            // images are small but many, read them in parallel
+            results.mEmojiFingerprint = images.entrySet().parallelStream()
+                    .map(entry -> {
+                        var resource = entry.getValue();
+                        try (var stream = resource.open()) {
+                            return getFingerprint(entry.getKey(), resource.sourcePackId(), stream.readAllBytes());
+                        } catch (IOException e) {
+                            return entry.getKey() + "@" + resource.sourcePackId() + "/failed";
+                        }
+                    })
+                    .sorted()
+                    .toList();
         } else {
             LOGGER.info(GlyphManager.MARKER, "No Emoji font was found");
         }
@@ -242,7 +291,6 @@ public class FontResourceManager implements PreparableReloadListener {
     protected static void loadShortcodes(@Nonnull ResourceManager resources,
                                          @Nonnull LoadResults results) {
         final var map = new HashMap<String, String>();
-        final var prefixedMap = new HashMap<Character, HashSet<String>>();
         try (var reader = resources.openAsReader(ModernUIMod.location("emoji_data.json"))) {
             for (var entry : new Gson().fromJson(reader, JsonArray.class)) {
                 var row = entry.getAsJsonArray();
@@ -252,9 +300,6 @@ public class FontResourceManager implements PreparableReloadListener {
                 for (int i = 0; i < shortcodes.size(); i++) {
                     String sc = shortcodes.get(i).getAsString();
                     String key = ":" + sc + ":";
-                    char prefix = Character.toLowerCase(sc.charAt(0));
-                    prefixedMap.computeIfAbsent(prefix, $ -> new HashSet<>())
-                            .add(key);
                     if (i == 0) {
                         map.put(key, sequence);
                     } else {
@@ -268,13 +313,7 @@ public class FontResourceManager implements PreparableReloadListener {
         LOGGER.info(GlyphManager.MARKER, "Scanned emoji shortcodes: {}",
                 map.size());
         results.mEmojiShortcodes = map;
-        final var finalPrefixedMap = new HashMap<Character, List<String>>();
-        for (var e : prefixedMap.entrySet()) {
-            var list = new ArrayList<>(e.getValue());
-            list.sort(null);
-            finalPrefixedMap.put(e.getKey(), Collections.unmodifiableList(list));
-        }
-        results.mPrefixedEmojiShortcodes = finalPrefixedMap;
+        results.mEmojiShortcodeIndex = new EmojiShortcodeIndex(map.keySet());
     }
 
     // ASYNC
@@ -297,10 +336,36 @@ public class FontResourceManager implements PreparableReloadListener {
         return mEmojiShortcodes.get(shortcode);
     }
 
+    /**
+     * Find shortcodes for completion, recently used ones are ranked first.
+     *
+     * @param prefix the typed prefix with the leading colon, e.g. :ch
+     * @return matching shortcodes with colons, at most {@link #MAX_EMOJI_SHORTCODE_SUGGESTIONS}
+     */
     @Nonnull
-    @Unmodifiable
-    public List<String> getEmojiShortcodes(char prefix) {
-        return mPrefixedEmojiShortcodes.getOrDefault(Character.toLowerCase(prefix), Collections.emptyList());
+    public List<String> getEmojiShortcodes(@Nonnull CharSequence prefix) {
+        return mEmojiShortcodeIndex.suggest(prefix, MAX_EMOJI_SHORTCODE_SUGGESTIONS,
+                mRecentEmojiShortcodes);
+    }
+
+    /**
+     * @return the length of the longest shortcode with colons, or 0 if there's no shortcode
+     */
+    public int getMaxEmojiShortcodeLength() {
+        return mEmojiShortcodeIndex.getMaxLength();
+    }
+
+    /**
+     * Called when a shortcode is replaced with its Emoji sequence in chat input.
+     *
+     * @param shortcode the shortcode with colons
+     */
+    public void onEmojiShortcodeUsed(@Nonnull String shortcode) {
+        mRecentEmojiShortcodes.remove(shortcode);
+        mRecentEmojiShortcodes.addFirst(shortcode);
+        if (mRecentEmojiShortcodes.size() > MAX_RECENT_EMOJI_SHORTCODES) {
+            mRecentEmojiShortcodes.removeLast();
+        }
     }
 
     static class EmojiData {
@@ -0,0 +1,223 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2025 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.mc;
+
+import com.mojang.blaze3d.systems.RenderSystem;
+import net.minecraft.client.gui.Font;
+import net.minecraft.client.gui.GuiGraphicsExtractor;
+
+import javax.annotation.Nonnull;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per-stage frame timings of the game and the UI, for finding out where stutters come from.
+ * <p>
+ * Each series is a ring buffer of the most recent durations in nanoseconds. A series has a
+ * single writer thread and is never locked, readers may observe a sample that is being
+ * overwritten, which doesn't matter for statistics.
+ */
+public final class FrameTimings {
+
+    /**
+     * Interval between the start of two consecutive game frames.
+     */
+    public static final int FRAME = 0;
+    /**
+     * Game stages, from {@link MuiModApi#RENDER_STAGE_UPDATE} to the next stage.
+     */
+    public static final int GAME_UPDATE = 1;
+    public static final int GAME_EXTRACT = 2;
+    public static final int GAME_RENDER = 3;
+    /**
+     * Time spent on UI thread drawing the view hierarchy and snapping the recording.
+     */
+    public static final int UI_RECORD = 4;
+    /**
+     * Time UI thread was blocked waiting for render thread to consume its frames.
+     */
+    public static final int UI_WAIT = 5;
+    /**
+     * Time spent on render thread submitting UI recordings and compositing the UI layer.
+     */
+    public static final int UI_COMPOSITE = 6;
+    /**
+     * Time spent on render thread creating text layouts and rasterizing glyphs in a game frame,
+     * see {@link #addTextNanos(long)}.
+     */
+    public static final int TEXT = 7;
+
+    private static final int SERIES_COUNT = 8;
+
+    private static final String[] SERIES_NAMES = {
+            "Frame", "Update", "Extract", "Render", "UI Record", "UI Wait", "UI Composite", "Text"
+    };
+
+    /**
+     * Number of samples kept per series, must be a power of two.
+     */
+    public static final int CAPACITY = 256;
+
+    private static final AtomicLongArray sSamples = new AtomicLongArray(SERIES_COUNT * CAPACITY);
+    private static final AtomicLongArray sCounts = new AtomicLongArray(SERIES_COUNT);
+
+    public static volatile boolean sShowOverlay;
+
+    // game render thread
+    private static long sUpdateNanos;
+    private static long sExtractNanos;
+    private static long sRenderNanos;
+    private static long sTextNanos;
+
+    private FrameTimings() {
+    }
+
+    /**
+     * Add a sample to the series, must be called from the single writer thread of the series.
+     */
+    public static void record(int series, long nanos) {
+        final long count = sCounts.get(series);
+        sSamples.lazySet(series * CAPACITY + (int) (count & (CAPACITY - 1)), nanos);
+        sCounts.lazySet(series, count + 1);
+    }
+
+    /**
+     * Add time spent on text to the current game frame. Text work on other threads
+     * doesn't block the frame, and is ignored.
+     */
+    public static void addTextNanos(long nanos) {
+        if (RenderSystem.isOnRenderThread()) {
+            sTextNanos += nanos;
+        }
+    }
+
+    // called from game render thread before any listener
+    static void onRenderStage(int stage) {
+        final long now = System.nanoTime();
+        switch (stage) {
+            case MuiModApi.RENDER_STAGE_UPDATE -> {
+                if (sUpdateNanos != 0) {
+                    record(FRAME, now - sUpdateNanos);
+                }
+                sUpdateNanos = now;
+            }
+            case MuiModApi.RENDER_STAGE_EXTRACT -> {
+                if (sUpdateNanos != 0) {
+                    record(GAME_UPDATE, now - sUpdateNanos);
+                }
+                sExtractNanos = now;
+            }
+            case MuiModApi.RENDER_STAGE_RENDER -> {
+                if (sExtractNanos != 0) {
+                    record(GAME_EXTRACT, now - sExtractNanos);
+                }
+                sRenderNanos = now;
+            }
+            case MuiModApi.RENDER_STAGE_PRESENT -> {
+                if (sRenderNanos != 0) {
+                    record(GAME_RENDER, now - sRenderNanos);
+                }
+                record(TEXT, sTextNanos);
+                sTextNanos = 0;
+            }
+        }
+    }
+
+    /**
+     * Copy the recent samples of a series, the oldest first.
+     *
+     * @param dst at least {@link #CAPACITY} long
+     * @return the number of samples copied
+     */
+    public static int snapshot(int series, @Nonnull long[] dst) {
+        final long count = sCounts.get(series);
+        final int n = (int) Math.min(count, CAPACITY);
+        for (int i = 0; i < n; i++) {
+            final long index = count - n + i;
+            dst[i] = sSamples.get(series * CAPACITY + (int) (index & (CAPACITY - 1)));
+        }
+        return n;
+    }
+
+    // sorted must be sorted ascending
+    private static long percentile(@Nonnull long[] sorted, int n, double p) {
+        return sorted[Math.min(n - 1, (int) (p * n))];
+    }
+
+    public static void dump(@Nonnull PrintWriter pw) {
+        final long[] samples = new long[CAPACITY];
+        pw.println("Frame Timings (ms):");
+        for (int series = 0; series < SERIES_COUNT; series++) {
+            final int n = snapshot(series, samples);
+            if (n == 0) {
+                continue;
+            }
+            Arrays.sort(samples, 0, n);
+            pw.printf("  %s: Count=%d, P50=%.2f, P90=%.2f, P99=%.2f, Max=%.2f\n",
+                    SERIES_NAMES[series], n,
+                    percentile(samples, n, 0.5) / 1e6,
+                    percentile(samples, n, 0.9) / 1e6,
+                    percentile(samples, n, 0.99) / 1e6,
+                    samples[n - 1] / 1e6);
+        }
+    }
+
+    /**
+     * Draw a graph of each series at the top left corner of the screen.
+     * Bars are green within 60 FPS budget, yellow within 30 FPS budget, otherwise red.
+     */
+    static void drawOverlay(@Nonnull GuiGraphicsExtractor gr, @Nonnull Font font) {
+        final int graphWidth = 120;
+        final int graphHeight = 20;
+        final long[] samples = new long[CAPACITY];
+        final long[] sorted = new long[CAPACITY];
+        int y = 4;
+        for (int series = 0; series < SERIES_COUNT; series++) {
+            final int n = snapshot(series, samples);
+            final int x = 4;
+            gr.fill(x, y, x + graphWidth, y + graphHeight, 0x90000000);
+            final int count = Math.min(n, graphWidth);
+            for (int i = 0; i < count; i++) {
+                final long nanos = samples[n - count + i];
+                final int h = (int) Math.min(graphHeight, nanos * graphHeight / 33_333_333L);
+                final int color;
+                if (nanos <= 16_666_667L) {
+                    color = 0xFF4CAF50;
+                } else if (nanos <= 33_333_333L) {
+                    color = 0xFFFFC107;
+                } else {
+                    color = 0xFFF44336;
+                }
+                gr.fill(x + graphWidth - count + i, y + graphHeight - Math.max(h, 1),
+                        x + graphWidth - count + i + 1, y + graphHeight, color);
+            }
+            String label = SERIES_NAMES[series];
+            if (n != 0) {
+                System.arraycopy(samples, 0, sorted, 0, n);
+                Arrays.sort(sorted, 0, n);
+                label = String.format("%s %.1f / %.1f ms", label,
+                        percentile(sorted, n, 0.5) / 1e6,
+                        percentile(sorted, n, 0.99) / 1e6);
+            }
+            gr.text(font, label, x + graphWidth + 4, y + (graphHeight - 8) / 2, 0xFFFFFFFF, true);
+            y += graphHeight + 2;
+        }
+    }
+}
@@ -23,4 +23,14 @@ import icyllis.modernui.core.UndoManager;
 public interface IModernEditBox {
 
     UndoManager modernUI_MC$getUndoManager();
+
+    /**
+     * @return the start of the text changed by the last edit
+     */
+    int modernUI_MC$getLastEditStart();
+
+    /**
+     * @return the end of the text changed by the last edit, in the current value
+     */
+    int modernUI_MC$getLastEditEnd();
 }
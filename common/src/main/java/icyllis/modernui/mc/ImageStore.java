@@ -18,22 +18,48 @@
 
 package icyllis.modernui.mc;
 
+import icyllis.arc3d.core.Rect2i;
+import icyllis.arc3d.core.RectanglePacker;
 import icyllis.modernui.annotation.NonNull;
 import icyllis.modernui.annotation.Nullable;
+import icyllis.modernui.annotation.UiThread;
+import icyllis.modernui.core.Core;
+import icyllis.modernui.graphics.Bitmap;
 import icyllis.modernui.graphics.BitmapFactory;
+import icyllis.modernui.graphics.Canvas;
 import icyllis.modernui.graphics.Image;
+import icyllis.modernui.graphics.Paint;
+import icyllis.modernui.graphics.Rect;
+import icyllis.modernui.graphics.drawable.Drawable;
+import icyllis.modernui.graphics.drawable.ImageDrawable;
+import icyllis.modernui.resources.Resources;
+import icyllis.modernui.text.TextUtils;
 import net.minecraft.client.Minecraft;
 import net.minecraft.resources.Identifier;
+import net.minecraft.util.Util;
 import org.jetbrains.annotations.ApiStatus;
+import org.lwjgl.system.MemoryUtil;
 
+import java.io.PrintWriter;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.BiFunction;
 
 /**
  * Used to obtain an {@link Image} object from mod resources.
  * The old {@link Image#create(String, String)} is redirected to here,
  * but the old method can only access the "textures" subdirectory.
+ * <p>
+ * Recently used images are strongly held in an LRU cache bounded by their texture bytes,
+ * images evicted from it are still reachable through weak references until collected.
+ * <p>
+ * Small images such as icons can be packed into shared atlas pages via
+ * {@link #getOrCreateSubImage(Identifier)}, so drawing many of them can be batched.
+ * Pages count toward the cache budget, and are freed once none of their sub images
+ * is reachable.
  *
  * @since 3.13.0
  */
@@ -41,8 +67,46 @@ public class ImageStore implements BiFunction<String, String, Image> {
 
     private static final ImageStore INSTANCE = new ImageStore();
 
+    /**
+     * Max texture bytes of images strongly held by the cache, including atlas pages.
+     */
+    public static volatile long sCacheBudgetBytes = 64L * 1024 * 1024;
+
     private final Object mLock = new Object();
     private HashMap<Identifier, WeakReference<Image>> mImages = new HashMap<>();
+    // access ordered, guarded by mLock
+    private final LinkedHashMap<Identifier, Image> mCache = new LinkedHashMap<>(16, 0.75f, true);
+    private long mCacheBytes;
+    // pixels and texture of atlas pages, guarded by mLock
+    private long mAtlasBytes;
+    // coalesced async requests, guarded by mLock
+    private final HashMap<Identifier, CompletableFuture<Image>> mPending = new HashMap<>();
+    /**
+     * Incremented by {@link #clear()}, images decoded from the previous resources are dropped.
+     * Guarded by mLock.
+     */
+    private int mGeneration;
+
+    /**
+     * Images whose width and height are both no larger than this are packed into atlas pages.
+     */
+    public static final int ATLAS_MAX_IMAGE_SIZE = 64;
+    public static final int ATLAS_PAGE_SIZE = 1024;
+    public static final int ATLAS_MAX_PAGES = 4;
+    /**
+     * A page texture is rebuilt only when no image was stitched into it for this long, images
+     * stitched in the meantime are drawn from their own small textures.
+     */
+    public static final long ATLAS_REBUILD_DELAY_MILLIS = 500;
+    /**
+     * Each page holds its pixels and a texture of the same size.
+     */
+    private static final long ATLAS_PAGE_BYTES = 2L * ATLAS_PAGE_SIZE * ATLAS_PAGE_SIZE * 4;
+
+    // UI thread
+    private final ArrayList<AtlasPage> mAtlasPages = new ArrayList<>();
+    // a page is freed once all its sub images are collected
+    private final HashMap<Identifier, WeakReference<SubImage>> mSubImages = new HashMap<>();
 
     private ImageStore() {
     }
@@ -64,7 +128,22 @@ public class ImageStore implements BiFunction<String, String, Image> {
                 }
             }
             mImages = new HashMap<>();
+            mCache.clear();
+            mCacheBytes = 0;
+            // requests in flight complete with images of the new resources, see create()
+            mPending.clear();
+            mGeneration++;
         }
+        Core.getUiThreadExecutor().execute(() -> {
+            for (var page : mAtlasPages) {
+                page.close();
+            }
+            synchronized (mLock) {
+                mAtlasBytes -= ATLAS_PAGE_BYTES * mAtlasPages.size();
+            }
+            mAtlasPages.clear();
+            mSubImages.clear();
+        });
     }
 
     /**
@@ -75,38 +154,324 @@ public class ImageStore implements BiFunction<String, String, Image> {
      *
      * @param location the identifier to the resource
      * @return texture image, null if failed
+     * @see #getOrCreateAsync(Identifier)
      */
     @Nullable
+    @UiThread
     public Image getOrCreate(@NonNull Identifier location) {
+        final int generation;
         synchronized (mLock) {
-            var imageRef = mImages.get(location);
-            Image image;
-            if (imageRef != null && (image = imageRef.get()) != null && !image.isClosed()) {
+            var image = lookup(location);
+            if (image != null) {
                 return image;
             }
+            generation = mGeneration;
+        }
+        var image = create(location, decode(location), generation);
+        if (image == null && isStale(generation)) {
+            // resources were reloaded while decoding
+            return getOrCreate(location);
+        }
+        return image;
+    }
+
+    /**
+     * Get or create a texture image from the given resource asynchronously. The resource
+     * is decoded on a background thread, and the image is created on the UI thread.
+     * Concurrent requests for the same resource share the same future.
+     * <p>
+     * This method can be called from any thread, the returned future is completed on
+     * the UI thread, with null if failed.
+     *
+     * @param location the identifier to the resource
+     * @return a future of the texture image
+     */
+    @NonNull
+    public CompletableFuture<Image> getOrCreateAsync(@NonNull Identifier location) {
+        synchronized (mLock) {
+            var image = lookup(location);
+            if (image != null) {
+                return CompletableFuture.completedFuture(image);
+            }
+            var pending = mPending.get(location);
+            if (pending != null) {
+                return pending;
+            }
+            final int generation = mGeneration;
+            var future = CompletableFuture.supplyAsync(() -> decode(location), Util.backgroundExecutor())
+                    .thenComposeAsync(bitmap -> {
+                        var image = create(location, bitmap, generation);
+                        if (image == null && isStale(generation)) {
+                            // resources were reloaded while decoding
+                            return getOrCreateAsync(location);
+                        }
+                        return CompletableFuture.completedFuture(image);
+                    }, Core.getUiThreadExecutor());
+            mPending.put(location, future);
+            future.whenComplete((__, ___) -> {
+                synchronized (mLock) {
+                    mPending.remove(location, future);
+                }
+            });
+            return future;
+        }
+    }
+
+    /**
+     * Create a drawable that draws the placeholder until the image is loaded asynchronously.
+     * The placeholder should have the same intrinsic size as the image, since the layout
+     * won't be requested again when the image is ready.
+     *
+     * @param res         the resources of the view
+     * @param location    the identifier to the resource
+     * @param placeholder the drawable shown while loading or if failed, or null to draw nothing
+     * @return a new drawable
+     */
+    @NonNull
+    @UiThread
+    public Drawable createDrawable(@NonNull Resources res, @NonNull Identifier location,
+                                   @Nullable Drawable placeholder) {
+        var drawable = new PlaceholderDrawable(placeholder);
+        getOrCreateAsync(location).thenAccept(image -> {
+            if (image != null) {
+                drawable.setDrawable(new ImageDrawable(res, image));
+            }
+        });
+        return drawable;
+    }
+
+    /**
+     * Get or create a sub image from the given resource. Small images are packed into shared
+     * atlas pages, drawing sub images of the same page can be batched; other images are
+     * standalone, the same as {@link #getOrCreate(Identifier)}.
+     * <p>
+     * This method should be called only from the UI thread; and the returned object
+     * should be used only on the UI thread. The store doesn't hold the returned object
+     * strongly, the caller should keep it while it's in use.
+     *
+     * @param location the identifier to the resource
+     * @return sub image, null if failed
+     */
+    @Nullable
+    @UiThread
+    public SubImage getOrCreateSubImage(@NonNull Identifier location) {
+        var subImageRef = mSubImages.get(location);
+        SubImage subImage;
+        if (subImageRef != null && (subImage = subImageRef.get()) != null) {
+            return subImage;
         }
-        try (var stream = Minecraft.getInstance().getResourceManager().open(location);
-             var bitmap = BitmapFactory.decodeStream(stream)) {
-            var newImage = Image.createTextureFromBitmap(bitmap);
+        final int generation;
+        synchronized (mLock) {
+            var image = lookup(location);
+            if (image != null) {
+                // already created standalone
+                return new SubImage(null, image, 0, 0, image.getWidth(), image.getHeight());
+            }
+            generation = mGeneration;
+        }
+        var bitmap = decode(location);
+        if (bitmap == null) {
+            return null;
+        }
+        if (bitmap.getWidth() <= ATLAS_MAX_IMAGE_SIZE && bitmap.getHeight() <= ATLAS_MAX_IMAGE_SIZE &&
+                bitmap.getFormat() == Bitmap.Format.RGBA_8888 && !bitmap.isPremultiplied()) {
+            purgeAtlasPages();
+            subImage = stitch(bitmap);
+            if (subImage != null) {
+                bitmap.close();
+                mSubImages.put(location, new WeakReference<>(subImage));
+                return subImage;
+            }
+            // pages are full, the bitmap is still valid
+        }
+        var image = create(location, bitmap, generation);
+        if (image != null) {
+            return new SubImage(null, image, 0, 0, image.getWidth(), image.getHeight());
+        }
+        return null;
+    }
+
+    @Nullable
+    @UiThread
+    private SubImage stitch(@NonNull Bitmap bitmap) {
+        // 1 pixel gap to avoid bleeding
+        var rect = new Rect2i(0, 0, bitmap.getWidth() + 1, bitmap.getHeight() + 1);
+        AtlasPage target = null;
+        for (var page : mAtlasPages) {
+            if (page.mPacker.addRect(rect)) {
+                target = page;
+                break;
+            }
+        }
+        if (target == null) {
+            if (mAtlasPages.size() >= ATLAS_MAX_PAGES) {
+                return null;
+            }
             synchronized (mLock) {
-                var imageRef = mImages.get(location);
-                Image image;
-                if (imageRef != null && (image = imageRef.get()) != null && !image.isClosed()) {
-                    // race
-                    if (newImage != null) {
-                        newImage.close();
-                    }
-                    return image;
+                if (mAtlasBytes + ATLAS_PAGE_BYTES > sCacheBudgetBytes) {
+                    return null;
                 }
-                if (newImage != null) {
-                    mImages.put(location, new WeakReference<>(newImage));
-                    return newImage;
+                mAtlasBytes += ATLAS_PAGE_BYTES;
+                trimCache();
+            }
+            target = new AtlasPage();
+            mAtlasPages.add(target);
+            if (!target.mPacker.addRect(rect)) {
+                return null;
+            }
+        }
+        target.write(bitmap, rect.x(), rect.y());
+        var subImage = new SubImage(target, null, rect.x(), rect.y(), bitmap.getWidth(), bitmap.getHeight());
+        target.mSubImages.add(new WeakReference<>(subImage));
+        if (target.mImage != null) {
+            // the page texture is not rebuilt for every new image, a small upload is cheaper
+            var pendingImage = Image.createTextureFromBitmap(bitmap);
+            if (pendingImage != null) {
+                target.mPendingImages.add(pendingImage);
+                subImage.mPendingImage = pendingImage;
+                subImage.mPendingGeneration = target.mGeneration;
+            } else {
+                // nothing else can draw it
+                target.mRebuildNow = true;
+            }
+        }
+        return subImage;
+    }
+
+    /**
+     * Free the pages whose sub images are all collected.
+     */
+    @UiThread
+    private void purgeAtlasPages() {
+        mSubImages.values().removeIf(ref -> ref.get() == null);
+        for (var it = mAtlasPages.iterator(); it.hasNext(); ) {
+            var page = it.next();
+            page.mSubImages.removeIf(ref -> ref.get() == null);
+            if (page.mSubImages.isEmpty()) {
+                page.close();
+                it.remove();
+                synchronized (mLock) {
+                    mAtlasBytes -= ATLAS_PAGE_BYTES;
                 }
             }
+        }
+    }
+
+    // guarded by mLock
+    @Nullable
+    private Image lookup(@NonNull Identifier location) {
+        var image = mCache.get(location);
+        if (image != null) {
+            if (!image.isClosed()) {
+                return image;
+            }
+            mCache.remove(location);
+            mCacheBytes -= getTextureBytes(image);
+        }
+        var imageRef = mImages.get(location);
+        if (imageRef != null && (image = imageRef.get()) != null && !image.isClosed()) {
+            // still alive, promote it again
+            cache(location, image);
+            return image;
+        }
+        return null;
+    }
+
+    // guarded by mLock
+    private void cache(@NonNull Identifier location, @NonNull Image image) {
+        var prev = mCache.put(location, image);
+        if (prev != null) {
+            mCacheBytes -= getTextureBytes(prev);
+        }
+        mCacheBytes += getTextureBytes(image);
+        trimCache();
+    }
+
+    // guarded by mLock
+    private void trimCache() {
+        // evicted images are still in the weak map and are not closed, they may be in use
+        var it = mCache.values().iterator();
+        while (mCacheBytes + mAtlasBytes > sCacheBudgetBytes && mCache.size() > 1) {
+            mCacheBytes -= getTextureBytes(it.next());
+            it.remove();
+        }
+    }
+
+    private static long getTextureBytes(@NonNull Image image) {
+        return (long) image.getWidth() * image.getHeight() * 4;
+    }
+
+    @Nullable
+    private static Bitmap decode(@NonNull Identifier location) {
+        try (var stream = Minecraft.getInstance().getResourceManager().open(location)) {
+            return BitmapFactory.decodeStream(stream);
         } catch (Exception e) {
             ModernUIMod.LOGGER.error(ModernUIMod.MARKER, "Failed to load image {}", location, e);
+            return null;
         }
-        return null;
+    }
+
+    private boolean isStale(int generation) {
+        synchronized (mLock) {
+            return generation != mGeneration;
+        }
+    }
+
+    /**
+     * @param generation the generation when the bitmap was decoded
+     * @return the image, or null if failed or the bitmap is stale
+     */
+    @Nullable
+    @UiThread
+    private Image create(@NonNull Identifier location, @Nullable Bitmap bitmap, int generation) {
+        if (bitmap == null) {
+            return null;
+        }
+        Image newImage;
+        try (bitmap) {
+            newImage = Image.createTextureFromBitmap(bitmap);
+        }
+        synchronized (mLock) {
+            if (generation != mGeneration) {
+                // decoded from the previous resources, don't cache it
+                if (newImage != null) {
+                    newImage.close();
+                }
+                return null;
+            }
+            var image = lookup(location);
+            if (image != null) {
+                // race
+                if (newImage != null) {
+                    newImage.close();
+                }
+                return image;
+            }
+            if (newImage != null) {
+                mImages.put(location, new WeakReference<>(newImage));
+                cache(location, newImage);
+            }
+            return newImage;
+        }
+    }
+
+    /**
+     * Print the bytes held by the cache and atlas pages against the budget.
+     */
+    public void dump(@NonNull PrintWriter pw) {
+        final int count;
+        final long cacheBytes;
+        final long atlasBytes;
+        synchronized (mLock) {
+            count = mCache.size();
+            cacheBytes = mCacheBytes;
+            atlasBytes = mAtlasBytes;
+        }
+        final long budget = sCacheBudgetBytes;
+        pw.printf("Image Store: Cached=%d, CacheSize=%s, AtlasSize=%s, Budget=%s, Pressure=%.2f\n",
+                count, TextUtils.binaryCompact(cacheBytes), TextUtils.binaryCompact(atlasBytes),
+                TextUtils.binaryCompact(budget),
+                budget > 0 ? (double) (cacheBytes + atlasBytes) / budget : 0);
     }
 
     /**
@@ -121,4 +486,238 @@ public class ImageStore implements BiFunction<String, String, Image> {
         }
         return null;
     }
+
+    /**
+     * A region of an atlas page, or a standalone image.
+     */
+    public static final class SubImage {
+
+        @Nullable
+        private final AtlasPage mPage;
+        @Nullable
+        private final Image mImage;
+        /**
+         * Standalone texture of this sub image until the page texture is rebuilt to contain it,
+         * owned by the page.
+         */
+        @Nullable
+        Image mPendingImage;
+        int mPendingGeneration;
+        private final int mX;
+        private final int mY;
+        private final int mWidth;
+        private final int mHeight;
+
+        SubImage(@Nullable AtlasPage page, @Nullable Image image, int x, int y, int width, int height) {
+            mPage = page;
+            mImage = image;
+            mX = x;
+            mY = y;
+            mWidth = width;
+            mHeight = height;
+        }
+
+        /**
+         * Returns the texture image that contains this sub image, may be shared, and the
+         * source rectangle of this sub image in it. Both may change when the page texture
+         * is rebuilt, so they are only valid together.
+         *
+         * @param outSrc receives the source rectangle
+         * @return the texture image that contains this sub image
+         */
+        @Nullable
+        @UiThread
+        public Image getImage(@NonNull Rect outSrc) {
+            if (mPage != null) {
+                // this may rebuild the page texture and release the pending image
+                var image = mPage.getImage();
+                if (mPendingImage != null) {
+                    if (mPendingGeneration == mPage.mGeneration) {
+                        outSrc.set(0, 0, mWidth, mHeight);
+                        return mPendingImage;
+                    }
+                    // released by the page
+                    mPendingImage = null;
+                }
+                outSrc.set(mX, mY, mX + mWidth, mY + mHeight);
+                return image;
+            }
+            outSrc.set(0, 0, mWidth, mHeight);
+            return mImage;
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+
+        /**
+         * Draw this sub image into the given rectangle.
+         */
+        @UiThread
+        public void draw(@NonNull Canvas canvas, float left, float top, float right, float bottom,
+                         @Nullable Paint paint) {
+            var src = new Rect();
+            var image = getImage(src);
+            if (image != null) {
+                canvas.drawImage(image, src.left, src.top, src.right, src.bottom,
+                        left, top, right, bottom, paint);
+            }
+        }
+
+        /**
+         * @return a new drawable that draws this sub image into its bounds
+         */
+        @NonNull
+        public Drawable createDrawable() {
+            return new SubImageDrawable(this);
+        }
+    }
+
+    private static class SubImageDrawable extends Drawable {
+
+        private final SubImage mSubImage;
+
+        SubImageDrawable(SubImage subImage) {
+            mSubImage = subImage;
+        }
+
+        @Override
+        public void draw(@NonNull Canvas canvas) {
+            Rect b = getBounds();
+            mSubImage.draw(canvas, b.left, b.top, b.right, b.bottom, null);
+        }
+
+        @Override
+        public int getIntrinsicWidth() {
+            return mSubImage.getWidth();
+        }
+
+        @Override
+        public int getIntrinsicHeight() {
+            return mSubImage.getHeight();
+        }
+    }
+
+    /**
+     * Pixels are kept on CPU side, the texture is recreated lazily when new images were
+     * stitched. The first texture includes all images stitched before its first use. Later,
+     * new images are drawn from their own textures, and the page texture is recreated once
+     * no image was stitched for {@link #ATLAS_REBUILD_DELAY_MILLIS}, so that images streaming
+     * in over several frames cause only one full upload.
+     */
+    private static final class AtlasPage {
+
+        final Bitmap mPixels;
+        final RectanglePacker mPacker = RectanglePacker.make(ATLAS_PAGE_SIZE, ATLAS_PAGE_SIZE);
+        @Nullable
+        Image mImage;
+        boolean mDirty;
+        long mLastWriteMillis;
+        // a sub image failed to create its own texture, rebuild without delay
+        boolean mRebuildNow;
+        // textures of sub images stitched after the page texture was created,
+        // released when the page texture is rebuilt
+        final ArrayList<Image> mPendingImages = new ArrayList<>();
+        // incremented when the pending images are released
+        int mGeneration;
+        // not strongly referenced, the page is freed once they are all collected
+        final ArrayList<WeakReference<SubImage>> mSubImages = new ArrayList<>();
+        boolean mClosed;
+
+        AtlasPage() {
+            mPixels = Bitmap.createBitmap(ATLAS_PAGE_SIZE, ATLAS_PAGE_SIZE, Bitmap.Format.RGBA_8888);
+            mPixels.setPremultiplied(false);
+            MemoryUtil.memSet(mPixels.getAddress(), 0,
+                    (long) mPixels.getRowStride() * ATLAS_PAGE_SIZE);
+        }
+
+        void write(@NonNull Bitmap src, int x, int y) {
+            final int srcStride = src.getRowStride();
+            final int dstStride = mPixels.getRowStride();
+            final long srcAddr = src.getAddress();
+            final long dstAddr = mPixels.getAddress() + (long) y * dstStride + (x << 2);
+            for (int row = 0, h = src.getHeight(); row < h; row++) {
+                MemoryUtil.memCopy(srcAddr + (long) row * srcStride,
+                        dstAddr + (long) row * dstStride, src.getWidth() << 2);
+            }
+            mDirty = true;
+            mLastWriteMillis = Util.getMillis();
+        }
+
+        @Nullable
+        Image getImage() {
+            if (mClosed) {
+                return null;
+            }
+            if (mImage == null || (mDirty && (mRebuildNow ||
+                    Util.getMillis() - mLastWriteMillis >= ATLAS_REBUILD_DELAY_MILLIS))) {
+                var image = Image.createTextureFromBitmap(mPixels);
+                if (image != null) {
+                    if (mImage != null) {
+                        mImage.close();
+                    }
+                    mImage = image;
+                    mDirty = false;
+                    mRebuildNow = false;
+                    releasePendingImages();
+                }
+            }
+            return mImage;
+        }
+
+        private void releasePendingImages() {
+            for (var image : mPendingImages) {
+                image.close();
+            }
+            mPendingImages.clear();
+            mGeneration++;
+        }
+
+        void close() {
+            mClosed = true;
+            releasePendingImages();
+            if (mImage != null) {
+                mImage.close();
+                mImage = null;
+            }
+            mPixels.close();
+        }
+    }
+
+    private static class PlaceholderDrawable extends Drawable {
+
+        @Nullable
+        private Drawable mDrawable;
+
+        PlaceholderDrawable(@Nullable Drawable placeholder) {
+            mDrawable = placeholder;
+        }
+
+        void setDrawable(@NonNull Drawable drawable) {
+            mDrawable = drawable;
+            invalidateSelf();
+        }
+
+        @Override
+        public void draw(@NonNull Canvas canvas) {
+            if (mDrawable != null) {
+                mDrawable.setBounds(getBounds());
+                mDrawable.draw(canvas);
+            }
+        }
+
+        @Override
+        public int getIntrinsicWidth() {
+            return mDrawable != null ? mDrawable.getIntrinsicWidth() : -1;
+        }
+
+        @Override
+        public int getIntrinsicHeight() {
+            return mDrawable != null ? mDrawable.getIntrinsicHeight() : -1;
+        }
+    }
 }
@@ -641,6 +641,7 @@ public abstract class MuiModApi {
 
     // INTERNAL HOOK
     public static void dispatchOnRenderFrame(long frame, int stage) {
+        FrameTimings.onRenderStage(stage);
         for (var l : sOnRenderFrameListeners) {
             l.onRenderFrame(frame, stage);
         }
@@ -78,7 +78,6 @@ import net.minecraft.util.thread.BlockableEventLoop;
 import net.minecraft.world.inventory.AbstractContainerMenu;
 import net.minecraft.world.item.ItemStack;
 import org.apache.commons.io.output.StringBuilderWriter;
-import org.apache.commons.lang3.tuple.Pair;
 import org.apache.logging.log4j.Marker;
 import org.apache.logging.log4j.MarkerManager;
 import org.jetbrains.annotations.ApiStatus;
@@ -91,6 +90,7 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.ByteOrder;
 import java.util.*;
 
 import static icyllis.modernui.mc.ModernUIMod.LOGGER;
@@ -111,6 +111,15 @@ public abstract class UIManager implements LifecycleOwner {
     public static volatile String sDingSound;
     public static volatile float sDingVolume = 0.25f;
     public static volatile boolean sZoomEnabled;
+    /**
+     * The maximum number of UI frames recorded but not yet submitted by the render thread,
+     * 1 means the UI thread waits for the render thread on every frame.
+     * <p>
+     * At most one recording is waiting for the render thread, frames drawn in the meantime
+     * are merged into the next recording, so the render thread executes one frame per
+     * game frame regardless of this value.
+     */
+    public static volatile int sMaxFrameLatency = 2;
 
     // the global instance, lazily init
     protected static volatile UIManager sInstance;
@@ -157,7 +166,7 @@ public abstract class UIManager implements LifecycleOwner {
     protected boolean mNoRender = false;
     protected boolean mClearNextMainTarget = false;
     protected boolean mAlwaysClearMainTarget = false;
-    private long mLastPurgeNanos;
+    private final DeferredCleanup mCleanup = new DeferredCleanup("Immediate Context", 1_000, 20_000);
 
     private GlTexture_Wrapped mLayerTexture;
     private GlTextureView mLayerTextureView;
@@ -168,6 +177,13 @@ public abstract class UIManager implements LifecycleOwner {
     @RawPtr
     private VulkanImage mLastSubmittedVulkanLayer;
 
+    // recordings taken from UI thread, Render thread
+    private final ArrayList<@SharedPtr Recording> mFrameTasks = new ArrayList<>();
+
+    // in-flight UI screenshot, Render thread
+    @Nullable
+    private ScreenshotReadback mScreenshotReadback;
+
     public final TooltipRenderer mTooltipRenderer = new TooltipRenderer();
 
 
@@ -675,6 +691,7 @@ public abstract class UIManager implements LifecycleOwner {
                 }
                 case GLFW_KEY_O -> mNoRender = !mNoRender;
                 case GLFW_KEY_F -> System.gc();
+                case GLFW_KEY_K -> FrameTimings.sShowOverlay ^= true;
             }
         }
     }
@@ -710,9 +727,18 @@ public abstract class UIManager implements LifecycleOwner {
         }
     }
 
+    /**
+     * Read back the UI layer asynchronously. The pixels are copied into a pixel pack buffer,
+     * then {@link #pollScreenshotReadback()} waits for the fence over the next frames, and
+     * the mapped buffer is unpremultiplied and saved on IO thread.
+     */
     @VisibleForTesting
-    @SuppressWarnings("resource")
+    @RenderThread
     public void takeScreenshot() {
+        if (mScreenshotReadback != null) {
+            // the previous one is still in flight
+            return;
+        }
         @SharedPtr
         ImageProxy surface = mRoot.getLayer();
         if (surface == null) {
@@ -724,65 +750,148 @@ public abstract class UIManager implements LifecycleOwner {
         }
         final int width = layer.getWidth();
         final int height = layer.getHeight();
-        final Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Format.RGBA_8888);
-        bitmap.setPremultiplied(true);
+        final int boundBuffer = GL33C.glGetInteger(GL33C.GL_PIXEL_PACK_BUFFER_BINDING);
+        final int buffer = GL33C.glGenBuffers();
+        GL33C.glBindBuffer(GL33C.GL_PIXEL_PACK_BUFFER, buffer);
+        GL33C.glBufferData(GL33C.GL_PIXEL_PACK_BUFFER, (long) width * height * 4, GL33C.GL_STREAM_READ);
         GL33C.glPixelStorei(GL33C.GL_PACK_ROW_LENGTH, 0);
         GL33C.glPixelStorei(GL33C.GL_PACK_SKIP_ROWS, 0);
         GL33C.glPixelStorei(GL33C.GL_PACK_SKIP_PIXELS, 0);
         GL33C.glPixelStorei(GL33C.GL_PACK_ALIGNMENT, 1);
-        // SYNC GPU TODO (use transfer buffer?)
-        GL33C.glBindBuffer(GL33C.GL_PIXEL_PACK_BUFFER, 0);
         int boundTexture = GL33C.glGetInteger(GL33C.GL_TEXTURE_BINDING_2D);
         GL33C.glBindTexture(GL33C.GL_TEXTURE_2D, layer.getHandle());
-        GL33C.glGetTexImage(GL33C.GL_TEXTURE_2D, 0, GL33C.GL_RGBA, GL33C.GL_UNSIGNED_BYTE,
-                bitmap.getAddress());
+        // offset into the pack buffer, this doesn't wait for the GPU
+        GL33C.glGetTexImage(GL33C.GL_TEXTURE_2D, 0, GL33C.GL_RGBA, GL33C.GL_UNSIGNED_BYTE, 0L);
         GL33C.glBindTexture(GL33C.GL_TEXTURE_2D, boundTexture);
+        GL33C.glBindBuffer(GL33C.GL_PIXEL_PACK_BUFFER, boundBuffer);
+        final long fence = GL33C.glFenceSync(GL33C.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
         surface.unref();
+        mScreenshotReadback = new ScreenshotReadback(buffer, fence, width, height);
+    }
+
+    @RenderThread
+    private void pollScreenshotReadback() {
+        final ScreenshotReadback readback = mScreenshotReadback;
+        if (readback == null || readback.mMapped) {
+            return;
+        }
+        final int status = GL33C.glClientWaitSync(readback.mFence, 0, 0);
+        if (status == GL33C.GL_TIMEOUT_EXPIRED) {
+            return;
+        }
+        GL33C.glDeleteSync(readback.mFence);
+        if (status == GL33C.GL_WAIT_FAILED) {
+            LOGGER.warn(MARKER, "Failed to wait for UI screenshot readback");
+            releaseScreenshotReadback();
+            return;
+        }
+        final int width = readback.mWidth;
+        final int height = readback.mHeight;
+        final int boundBuffer = GL33C.glGetInteger(GL33C.GL_PIXEL_PACK_BUFFER_BINDING);
+        GL33C.glBindBuffer(GL33C.GL_PIXEL_PACK_BUFFER, readback.mBuffer);
+        final var mapped = GL33C.glMapBufferRange(GL33C.GL_PIXEL_PACK_BUFFER,
+                0, (long) width * height * 4, GL33C.GL_MAP_READ_BIT);
+        GL33C.glBindBuffer(GL33C.GL_PIXEL_PACK_BUFFER, boundBuffer);
+        if (mapped == null) {
+            LOGGER.warn(MARKER, "Failed to map UI screenshot readback buffer");
+            releaseScreenshotReadback();
+            return;
+        }
+        readback.mMapped = true;
+        final long address = MemoryUtil.memAddress(mapped);
         Util.ioPool().execute(() -> {
-            Bitmap converted = Bitmap.createBitmap(bitmap.getWidth(), bitmap.getHeight(), Bitmap.Format.RGBA_8888);
-            converted.setPremultiplied(false);
-            try (bitmap) {
-                // unpremul
-                converted.setPixels(bitmap, 0, 0, 0, 0, bitmap.getWidth(), bitmap.getHeight());
+            Bitmap converted = null;
+            try {
+                converted = Bitmap.createBitmap(width, height, Bitmap.Format.RGBA_8888);
+                converted.setPremultiplied(false);
+                unpremulAlpha(address, width, height, converted);
+            } catch (Throwable e) {
+                // e.g. out of memory, the readback must still be released
+                LOGGER.warn(MARKER, "Failed to convert UI screenshot", e);
+                if (converted != null) {
+                    converted.close();
+                    converted = null;
+                }
+            } finally {
+                // the buffer can be unmapped once converted, don't hold it during the dialog
+                Core.executeOnRenderThread(this::releaseScreenshotReadback);
             }
-            try (converted) {
-                converted.saveDialog(Bitmap.SaveFormat.PNG, 0, null);
+            if (converted == null) {
+                return;
+            }
+            try (var bitmap = converted) {
+                bitmap.saveDialog(Bitmap.SaveFormat.PNG, 0, null);
             } catch (IOException e) {
                 LOGGER.warn(MARKER, "Failed to save UI screenshot", e);
             }
         });
     }
 
-    /*@SuppressWarnings("IntegerMultiplicationImplicitCastToLong")
-    static void unpremulAlpha(Bitmap bitmap) {
-        final int width = bitmap.getWidth();
-        final int height = bitmap.getHeight();
-        final int rowStride = bitmap.getRowStride();
-        long addr = bitmap.getAddress();
+    @RenderThread
+    private void releaseScreenshotReadback() {
+        final ScreenshotReadback readback = mScreenshotReadback;
+        if (readback == null) {
+            return;
+        }
+        mScreenshotReadback = null;
+        if (readback.mMapped) {
+            final int boundBuffer = GL33C.glGetInteger(GL33C.GL_PIXEL_PACK_BUFFER_BINDING);
+            GL33C.glBindBuffer(GL33C.GL_PIXEL_PACK_BUFFER, readback.mBuffer);
+            GL33C.glUnmapBuffer(GL33C.GL_PIXEL_PACK_BUFFER);
+            GL33C.glBindBuffer(GL33C.GL_PIXEL_PACK_BUFFER, boundBuffer);
+        }
+        GL33C.glDeleteBuffers(readback.mBuffer);
+    }
+
+    /**
+     * Unpremultiply tightly packed RGBA_8888 pixels at src address into dst bitmap.
+     */
+    @SuppressWarnings("IntegerMultiplicationImplicitCastToLong")
+    static void unpremulAlpha(long src, int width, int height, @Nonnull Bitmap dst) {
+        final int rowStride = dst.getRowStride();
+        long dstAddr = dst.getAddress();
         final boolean big = ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN;
         for (int i = 0; i < height; i++) {
             for (int j = 0; j < width; j++) {
-                long base = addr + (j << 2);
-                int col = MemoryUtil.memGetInt(base);
+                int col = MemoryUtil.memGetInt(src + (j << 2));
                 if (big) {
                     col = Integer.reverseBytes(col);
                 }
-                int alpha = col >>> 24;
-                if (alpha != 0) {
-                    float a = alpha / 255.0f;
-                    int r = MathUtil.clamp((int) ((col & 0xFF) / a + 0.5f), 0, 0xFF);
-                    int g = MathUtil.clamp((int) (((col >> 8) & 0xFF) / a + 0.5f), 0, 0xFF);
-                    int b = MathUtil.clamp((int) (((col >> 16) & 0xFF) / a + 0.5f), 0, 0xFF);
+                final int alpha = col >>> 24;
+                if (alpha == 0) {
+                    col = 0;
+                } else if (alpha != 0xFF) {
+                    final int half = alpha >> 1;
+                    int r = Math.min(((col & 0xFF) * 0xFF + half) / alpha, 0xFF);
+                    int g = Math.min((((col >> 8) & 0xFF) * 0xFF + half) / alpha, 0xFF);
+                    int b = Math.min((((col >> 16) & 0xFF) * 0xFF + half) / alpha, 0xFF);
                     col = (r) | (g << 8) | (b << 16) | (col & 0xFF000000);
-                    if (big) {
-                        col = Integer.reverseBytes(col);
-                    }
-                    MemoryUtil.memPutInt(base, col);
                 }
+                if (big) {
+                    col = Integer.reverseBytes(col);
+                }
+                MemoryUtil.memPutInt(dstAddr + (j << 2), col);
             }
-            addr += rowStride;
+            src += width << 2;
+            dstAddr += rowStride;
+        }
+    }
+
+    private static final class ScreenshotReadback {
+
+        final int mBuffer;
+        final long mFence;
+        final int mWidth;
+        final int mHeight;
+        boolean mMapped;
+
+        ScreenshotReadback(int buffer, long fence, int width, int height) {
+            mBuffer = buffer;
+            mFence = fence;
+            mWidth = width;
+            mHeight = height;
         }
-    }*/
+    }
 
     protected void changeRadialBlur() {
         if (minecraft.gameRenderer.currentPostEffect() == null) {
@@ -856,6 +965,13 @@ public abstract class UIManager implements LifecycleOwner {
                     coreN, TextUtils.binaryCompact(coreMem), coreMem);
         }
 
+        FrameTimings.dump(pw);
+        mCleanup.dump(pw);
+        if (mRoot != null) {
+            mRoot.mCleanup.dump(pw);
+        }
+        ImageStore.getInstance().dump(pw);
+
         MuiModApi.dispatchOnDebugDump(pw);
     }
 
@@ -912,28 +1028,32 @@ public abstract class UIManager implements LifecycleOwner {
 
 
 
+        final long startNanos = System.nanoTime();
         @RawPtr
         ImmediateContext context = Core.requireImmediateContext();
 
-        var frameTask = mRoot.swapFrameTask();
-        @SharedPtr
-        Recording recording = frameTask.getLeft();
+        final var recordings = mFrameTasks;
         @SharedPtr
-        ImageProxy surface = frameTask.getRight();
+        ImageProxy surface = mRoot.swapFrameTasks(recordings);
+        final boolean hasRecording = !recordings.isEmpty();
 
-        if (recording != null) {
+        // recordings must be added in order, the last one is the latest frame
+        for (int i = 0; i < recordings.size(); i++) {
+            @SharedPtr
+            Recording recording = recordings.get(i);
             boolean added = context.addTask(recording);
             recording.close();
             if (!added) {
                 LOGGER.error("Failed to add draw commands");
             }
         }
+        recordings.clear();
 
         if (context.getDevice() instanceof GLDevice glDevice) {
             glDevice.flushRenderCalls();
         } // other backends don't need manual maintenance
 
-        if (recording != null) {
+        if (hasRecording) {
             context.submit();
         } else {
             context.checkForFinishedWork();
@@ -989,18 +1109,20 @@ public abstract class UIManager implements LifecycleOwner {
                     // ensure there's ref before submitting to the GPU
                     mLayerTexture.touch();
                 }
-                gr.nextStratum();
-                MuiModApi.get().submitGuiElementRenderState(gr, new BlitRenderState(
-                        // render target is always premultiplied
-                        RenderPipelines.GUI_TEXTURED_PREMULTIPLIED_ALPHA,
-                        // using the nearest sampler is performant
-                        TextureSetup.singleTexture(mLayerTextureView, RenderSystem.getSamplerCache().getClampToEdge(FilterMode.NEAREST)),
-                        new Matrix3x2f().scale(1.0F / minecraft.getWindow().getGuiScale()),
-                        0, 0, minecraft.getWindow().getWidth(), minecraft.getWindow().getHeight(),
-                        0.0F, 1.0F, 0.0F, 1.0F,
-                        ~0,
-                        /*scissorArea*/ null
-                ));
+                if (mRoot.mLayerVisible) {
+                    gr.nextStratum();
+                    MuiModApi.get().submitGuiElementRenderState(gr, new BlitRenderState(
+                            // render target is always premultiplied
+                            RenderPipelines.GUI_TEXTURED_PREMULTIPLIED_ALPHA,
+                            // using the nearest sampler is performant
+                            TextureSetup.singleTexture(mLayerTextureView, RenderSystem.getSamplerCache().getClampToEdge(FilterMode.NEAREST)),
+                            new Matrix3x2f().scale(1.0F / minecraft.getWindow().getGuiScale()),
+                            0, 0, minecraft.getWindow().getWidth(), minecraft.getWindow().getHeight(),
+                            0.0F, 1.0F, 0.0F, 1.0F,
+                            ~0,
+                            /*scissorArea*/ null
+                    ));
+                }
             } else if (surface.getImage() instanceof @RawPtr VulkanImage layer) {
                 if (ModernUIMod.isVulkanModLoaded()) {
                     if (mLayerTexture_Vulkan == null || !VulkanModIntegration.sameImage(mLayerTexture_Vulkan, layer)) {
@@ -1015,24 +1137,27 @@ public abstract class UIManager implements LifecycleOwner {
                     }
                     layer.refCommandBuffer();
                     VulkanModIntegration.syncImageLayoutFromArc3D(mLayerTexture_Vulkan, layer);
-                    gr.nextStratum();
-                    MuiModApi.get().submitGuiElementRenderState(gr, new BlitRenderState(
-                            // render target is always premultiplied
-                            RenderPipelines.GUI_TEXTURED_PREMULTIPLIED_ALPHA,
-                            // using the nearest sampler is performant
-                            TextureSetup.singleTexture(mLayerTextureView_Vulkan, RenderSystem.getSamplerCache().getClampToEdge(FilterMode.NEAREST)),
-                            new Matrix3x2f().scale(1.0F / minecraft.getWindow().getGuiScale()),
-                            0, 0, minecraft.getWindow().getWidth(), minecraft.getWindow().getHeight(),
-                            0.0F, 1.0F, 0.0F, 1.0F,
-                            ~0,
-                            /*scissorArea*/ null
-                    ));
+                    if (mRoot.mLayerVisible) {
+                        gr.nextStratum();
+                        MuiModApi.get().submitGuiElementRenderState(gr, new BlitRenderState(
+                                // render target is always premultiplied
+                                RenderPipelines.GUI_TEXTURED_PREMULTIPLIED_ALPHA,
+                                // using the nearest sampler is performant
+                                TextureSetup.singleTexture(mLayerTextureView_Vulkan, RenderSystem.getSamplerCache().getClampToEdge(FilterMode.NEAREST)),
+                                new Matrix3x2f().scale(1.0F / minecraft.getWindow().getGuiScale()),
+                                0, 0, minecraft.getWindow().getWidth(), minecraft.getWindow().getHeight(),
+                                0.0F, 1.0F, 0.0F, 1.0F,
+                                ~0,
+                                /*scissorArea*/ null
+                        ));
+                    }
                     VulkanModIntegration.addFrameOp(layer::unrefCommandBuffer);
                 }
                 mLastSubmittedVulkanLayer = layer;
             }
         }
         RefCnt.move(surface);
+        FrameTimings.record(FrameTimings.UI_COMPOSITE, System.nanoTime() - startNanos);
 
         if (mScreen != null) {
             for (var handler : mRoot.mRawDrawHandlers) {
@@ -1136,6 +1261,12 @@ public abstract class UIManager implements LifecycleOwner {
             // Render the UI above everything
             render(new GuiGraphicsExtractor(minecraft, guiRenderState, 0, 0), 0, 0, 0);
         }
+        if (FrameTimings.sShowOverlay && minecraft.isRunning()) {
+            // during gameplay and over any screen, even if the UI is not rendering
+            var gr = new GuiGraphicsExtractor(minecraft, guiRenderState, 0, 0);
+            gr.nextStratum();
+            FrameTimings.drawOverlay(gr, minecraft.font);
+        }
     }
 
     public void onRenderFrame(long frame, int stage) {
@@ -1163,9 +1294,12 @@ public abstract class UIManager implements LifecycleOwner {
             }
         } else if (stage == MuiModApi.RENDER_STAGE_PRESENT) {
             var context = Core.requireImmediateContext();
-            if (mFrameTimeNanos - mLastPurgeNanos >= 20_000_000_000L) {
-                mLastPurgeNanos = mFrameTimeNanos;
-                context.performDeferredCleanup(120_000);
+            pollScreenshotReadback();
+            final long usedBytes = context.getCurrentBudgetedBytes();
+            if (mCleanup.shouldCleanup(usedBytes, context.getMaxBudgetedBytes(),
+                    context.getCurrentPurgeableBytes() > 0)) {
+                context.performDeferredCleanup(mCleanup.getNotUsedMillis());
+                mCleanup.onCleanup(usedBytes, context.getCurrentBudgetedBytes());
             }
             if (mLayerTexture != null) {
                 // we can drop the ref after submitting to the GPU
@@ -1252,9 +1386,28 @@ public abstract class UIManager implements LifecycleOwner {
         MenuHelper mContextMenuHelper;
 
         GraniteSurface mSurface;
-        Recording mLastFrameTask;
-
-        private long mLastPurgeNanos;
+        // the recorded frame waiting for render thread, at most one, guarded by mRenderLock
+        final ArrayDeque<@SharedPtr Recording> mPendingFrameTasks = new ArrayDeque<>();
+        // frames drawn into the recording context but not yet snapped, because the
+        // pending recording is not yet taken, guarded by mRenderLock
+        int mMergedFrames;
+        // whether the latest drawn frame draws nothing, guarded by mRenderLock
+        boolean mDrawnEmpty = true;
+        // whether the latest recorded frame draws nothing, guarded by mRenderLock
+        boolean mContentEmpty = true;
+
+        // Render thread
+        long mLastFrameTaskNanos;
+        /**
+         * False if the layer is known to be fully transparent, then compositing is skipped.
+         * Views may still be drawn by exit animations after removal, so an empty layer is only
+         * skipped after the UI stops recording new frames for a while.
+         */
+        boolean mLayerVisible;
+
+        // UI thread
+        final DeferredCleanup mCleanup = new DeferredCleanup("UI Recording Context", 1_000, 20_000);
+        private long mDrawStartNanos;
 
         ArrayList<MinecraftDrawHandler.Operation> mPendingRawDrawHandlerOperations = new ArrayList<>();
         ArrayList<MinecraftDrawHandler> mRawDrawHandlers = new ArrayList<>();
@@ -1322,8 +1475,16 @@ public abstract class UIManager implements LifecycleOwner {
             }
         }
 
+        /**
+         * Every frame redraws and records the whole surface.
+         * <p>
+         * BLOCKED: damage-region redraw (clip the canvas to the dirty rect, load instead
+         * of clear) needs the core view root to pass the accumulated dirty rect here;
+         * invalidation is consumed inside core and only the surface size is given.
+         */
         @Override
         protected Canvas beginDrawLocked(int width, int height) {
+            mDrawStartNanos = System.nanoTime();
             synchronized (mRenderLock) {
                 if (mSurface == null ||
                         mSurface.getWidth() != width ||
@@ -1351,26 +1512,66 @@ public abstract class UIManager implements LifecycleOwner {
         @Override
         protected void endDrawLocked(@Nonnull Canvas canvas) {
             canvas.restoreToCount(1);
-            Recording task = Core.requireUiRecordingContext().snap();
+            final long recordEndNanos = System.nanoTime();
+            FrameTimings.record(FrameTimings.UI_RECORD, recordEndNanos - mDrawStartNanos);
+            // the decor doesn't draw itself, and there's no fragment or popup window
+            final boolean empty = mDecor.getChildCount() == 1 &&
+                    mFragmentContainerView.getChildCount() == 0;
             synchronized (mRenderLock) {
-                if (mLastFrameTask != null) {
-                    mLastFrameTask.close();
-                }
-                mLastFrameTask = task;
+                mDrawnEmpty = empty;
+                mMergedFrames++;
+                // record the next frame while this one is being consumed, a frame drawn
+                // before the render thread takes the pending one is merged into the next
+                // recording, which carries the uploads of both, then block only if the
+                // render thread falls behind too much
                 try {
-                    mRenderLock.wait();
+                    for (;;) {
+                        if (mPendingFrameTasks.isEmpty()) {
+                            snapFrameLocked();
+                        }
+                        if (mPendingFrameTasks.size() + mMergedFrames < Math.max(sMaxFrameLatency, 1)) {
+                            break;
+                        }
+                        mRenderLock.wait();
+                    }
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
                 }
-                if (mLastFrameTask != null) {
-                    mLastFrameTask.close();
-                }
-                mLastFrameTask = null;
             }
+            FrameTimings.record(FrameTimings.UI_WAIT, System.nanoTime() - recordEndNanos);
             var context = Core.requireUiRecordingContext();
-            if (System.nanoTime() - mLastPurgeNanos >= 20_000_000_000L) {
-                mLastPurgeNanos = System.nanoTime();
-                context.performDeferredCleanup(120_000);
+            final long usedBytes = context.getCurrentBudgetedBytes();
+            if (mCleanup.shouldCleanup(usedBytes, context.getMaxBudgetedBytes(),
+                    context.getCurrentPurgeableBytes() > 0)) {
+                context.performDeferredCleanup(mCleanup.getNotUsedMillis());
+                mCleanup.onCleanup(usedBytes, context.getCurrentBudgetedBytes());
+            }
+        }
+
+        // guarded by mRenderLock
+        @UiThread
+        private void snapFrameLocked() {
+            if (mMergedFrames == 0) {
+                return;
+            }
+            mMergedFrames = 0;
+            Recording task = Core.requireUiRecordingContext().snap();
+            if (task != null) {
+                mPendingFrameTasks.addLast(task);
+                mContentEmpty = mDrawnEmpty;
+            }
+        }
+
+        /**
+         * Snap the merged frames once the render thread has taken the pending recording,
+         * in case the UI thread is idle and doesn't draw another frame.
+         */
+        @UiThread
+        private void snapMergedFrames() {
+            synchronized (mRenderLock) {
+                if (mPendingFrameTasks.isEmpty()) {
+                    snapFrameLocked();
+                }
             }
         }
 
@@ -1392,10 +1593,16 @@ public abstract class UIManager implements LifecycleOwner {
             }
         }
 
+        /**
+         * Take the pending recording, if any.
+         *
+         * @param outRecordings receives the recordings, the caller takes the ownership
+         * @return the layer to draw
+         */
+        @Nullable
+        @SharedPtr
         @RenderThread
-        private Pair<@SharedPtr Recording, @SharedPtr ImageProxy> swapFrameTask() {
-            @SharedPtr
-            Recording recording;
+        private ImageProxy swapFrameTasks(@Nonnull List<@SharedPtr Recording> outRecordings) {
             @SharedPtr
             ImageProxy layer;
             synchronized (mRenderLock) {
@@ -1404,8 +1611,16 @@ public abstract class UIManager implements LifecycleOwner {
                 } else {
                     layer = null;
                 }
-                recording = mLastFrameTask;
-                mLastFrameTask = null;
+                final long now = System.nanoTime();
+                if (!mPendingFrameTasks.isEmpty()) {
+                    mLastFrameTaskNanos = now;
+                    outRecordings.addAll(mPendingFrameTasks);
+                    mPendingFrameTasks.clear();
+                    if (mMergedFrames > 0) {
+                        Core.getUiHandlerAsync().post(this::snapMergedFrames);
+                    }
+                }
+                mLayerVisible = !mContentEmpty || now - mLastFrameTaskNanos < 250_000_000L;
                 for (int i = 0; i < mPendingRawDrawHandlerOperations.size(); i++) {
                     var operation = mPendingRawDrawHandlerOperations.get(i);
                     switch (operation.mOp) {
@@ -1417,7 +1632,7 @@ public abstract class UIManager implements LifecycleOwner {
                 mPendingRawDrawHandlerOperations.clear();
                 mRenderLock.notifyAll();
             }
-            return Pair.of(recording, layer);
+            return layer;
             /*// wait UI thread, if slow
             synchronized (mRenderLock) {
 
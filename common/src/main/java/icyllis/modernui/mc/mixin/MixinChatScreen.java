@@ -48,27 +48,61 @@ public class MixinChatScreen {
                 (!(input instanceof IModernEditBox) ||
                         !((IModernEditBox) input).modernUI_MC$getUndoManager().isInUndo())) {
             final FontResourceManager manager = FontResourceManager.getInstance();
-            CYCLE:
-            for (;;) {
-                final Matcher matcher = MuiModApi.EMOJI_SHORTCODE_PATTERN.matcher(input.getValue());
-                while (matcher.find()) {
-                    int start = matcher.start();
-                    int end = matcher.end();
-                    if (end - start > 2) {
-                        String replacement = manager.lookupEmojiShortcode(
-                                input.getValue().substring(start, end)
-                        );
-                        if (replacement != null) {
-                            modernUI_MC$broadcasting = true;
-                            input.setHighlightPos(start);
-                            input.setCursorPosition(end);
-                            input.insertText(replacement);
-                            modernUI_MC$broadcasting = false;
-                            continue CYCLE;
+            final int maxLength = manager.getMaxEmojiShortcodeLength();
+            if (maxLength == 0) {
+                return;
+            }
+            final String value = input.getValue();
+            int editStart = 0;
+            int editEnd = value.length();
+            if (input instanceof IModernEditBox) {
+                editStart = Math.min(((IModernEditBox) input).modernUI_MC$getLastEditStart(), editEnd);
+                editEnd = Math.max(Math.min(((IModernEditBox) input).modernUI_MC$getLastEditEnd(), editEnd),
+                        editStart);
+            }
+            // only a shortcode around the edited text can be new, scan that region and
+            // replace all known shortcodes at once
+            final Matcher matcher = MuiModApi.EMOJI_SHORTCODE_PATTERN.matcher(value);
+            matcher.useTransparentBounds(true);
+            matcher.region(Math.max(editStart - maxLength, 0),
+                    Math.min(editEnd + maxLength, value.length()));
+            StringBuilder replacement = null;
+            int replaceStart = 0;
+            int replaceEnd = 0;
+            while (matcher.find()) {
+                int start = matcher.start();
+                int end = matcher.end();
+                if (end - start > 2) {
+                    String shortcode = value.substring(start, end);
+                    String sequence = manager.lookupEmojiShortcode(shortcode);
+                    if (sequence != null) {
+                        manager.onEmojiShortcodeUsed(shortcode);
+                        if (replacement == null) {
+                            replacement = new StringBuilder();
+                            replaceStart = start;
+                        } else {
+                            replacement.append(value, replaceEnd, start);
                         }
+                        replacement.append(sequence);
+                        replaceEnd = end;
                     }
                 }
-                break;
+            }
+            if (replacement != null) {
+                final int cursor = input.getCursorPosition();
+                modernUI_MC$broadcasting = true;
+                input.setHighlightPos(replaceStart);
+                input.setCursorPosition(replaceEnd);
+                input.insertText(replacement.toString());
+                modernUI_MC$broadcasting = false;
+                if (cursor < replaceStart) {
+                    input.setCursorPosition(cursor);
+                    input.setHighlightPos(cursor);
+                } else if (cursor > replaceEnd) {
+                    int newCursor = cursor + input.getValue().length() - value.length();
+                    input.setCursorPosition(newCursor);
+                    input.setHighlightPos(newCursor);
+                }
             }
         }
     }
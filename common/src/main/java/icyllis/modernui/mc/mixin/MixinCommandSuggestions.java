@@ -18,21 +18,22 @@
 
 package icyllis.modernui.mc.mixin;
 
+import com.mojang.brigadier.context.StringRange;
+import com.mojang.brigadier.suggestion.Suggestion;
 import com.mojang.brigadier.suggestion.Suggestions;
-import com.mojang.brigadier.suggestion.SuggestionsBuilder;
 import icyllis.modernui.mc.FontResourceManager;
 import icyllis.modernui.mc.ModernUIClient;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.components.CommandSuggestions;
 import net.minecraft.client.gui.components.EditBox;
-import net.minecraft.commands.SharedSuggestionProvider;
 import org.spongepowered.asm.mixin.*;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
 import javax.annotation.Nullable;
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
 /**
@@ -78,12 +79,18 @@ public abstract class MixinCommandSuggestions {
                 int startPos = getLastWordIndex(candidate);
 
                 if (candidate.startsWith(":", startPos) && candidate.length() - startPos >= 2) {
-                    Collection<String> suggestions = FontResourceManager.getInstance().getEmojiShortcodes(
-                            candidate.charAt(startPos + 1)
+                    List<String> shortcodes = FontResourceManager.getInstance().getEmojiShortcodes(
+                            candidate.substring(startPos)
                     );
-                    if (!suggestions.isEmpty()) {
-                        pendingSuggestions = SharedSuggestionProvider.suggest(suggestions,
-                                new SuggestionsBuilder(candidate, startPos));
+                    if (!shortcodes.isEmpty()) {
+                        // already filtered and ranked, don't let SuggestionsBuilder sort them
+                        StringRange range = StringRange.between(startPos, candidate.length());
+                        List<Suggestion> suggestions = new ArrayList<>(shortcodes.size());
+                        for (String shortcode : shortcodes) {
+                            suggestions.add(new Suggestion(range, shortcode));
+                        }
+                        pendingSuggestions = CompletableFuture.completedFuture(
+                                new Suggestions(range, suggestions));
                         pendingSuggestions.thenRun(() -> {
                             if (!pendingSuggestions.isDone()) {
                                 return;
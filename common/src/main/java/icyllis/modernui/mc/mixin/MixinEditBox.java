@@ -65,6 +65,11 @@ public abstract class MixinEditBox implements IModernEditBox {
     @Unique
     private final UndoManager modernUI_MC$undoManager = new UndoManager();
 
+    @Unique
+    private int modernUI_MC$lastEditStart;
+    @Unique
+    private int modernUI_MC$lastEditEnd;
+
     /**
      * Reset blink.
      */
@@ -108,6 +113,8 @@ public abstract class MixinEditBox implements IModernEditBox {
             at = @At(value = "FIELD", target = "Lnet/minecraft/client/gui/components/EditBox;value:Ljava/lang/String;",
                     opcode = Opcodes.PUTFIELD))
     public void onSetValue(String string, CallbackInfo ci) {
+        modernUI_MC$lastEditStart = 0;
+        modernUI_MC$lastEditEnd = string.length();
         if (modernUI_MC$undoManager.isInUndo()) {
             return;
         }
@@ -132,6 +139,8 @@ public abstract class MixinEditBox implements IModernEditBox {
             locals = LocalCapture.CAPTURE_FAILSOFT)
     public void onInsertText(String string, CallbackInfo ci,
                              int i, int j, int k, String string2, int l) {
+        modernUI_MC$lastEditStart = i;
+        modernUI_MC$lastEditEnd = i + string2.length();
         if (modernUI_MC$undoManager.isInUndo()) {
             return;
         }
@@ -166,6 +175,8 @@ public abstract class MixinEditBox implements IModernEditBox {
             locals = LocalCapture.CAPTURE_FAILSOFT)
     public void onDeleteChars(int i, CallbackInfo ci,
                               int j, int k) {
+        modernUI_MC$lastEditStart = j;
+        modernUI_MC$lastEditEnd = j;
         if (modernUI_MC$undoManager.isInUndo()) {
             return;
         }
@@ -252,4 +263,14 @@ public abstract class MixinEditBox implements IModernEditBox {
     public UndoManager modernUI_MC$getUndoManager() {
         return modernUI_MC$undoManager;
     }
+
+    @Override
+    public int modernUI_MC$getLastEditStart() {
+        return modernUI_MC$lastEditStart;
+    }
+
+    @Override
+    public int modernUI_MC$getLastEditEnd() {
+        return modernUI_MC$lastEditEnd;
+    }
 }
@@ -34,19 +34,26 @@ import icyllis.modernui.graphics.text.FontPaint;
 import it.unimi.dsi.fastutil.floats.FloatArrayList;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.font.providers.BitmapProvider;
 import net.minecraft.client.renderer.texture.DynamicTexture;
 import net.minecraft.resources.Identifier;
-import net.minecraft.server.packs.resources.ResourceManager;
 import org.jetbrains.annotations.Unmodifiable;
+import org.lwjgl.system.MemoryUtil;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import java.io.InputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 import java.util.Locale;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
 
 import static icyllis.modernui.mc.ModernUIMod.LOGGER;
 
@@ -55,6 +62,9 @@ import static icyllis.modernui.mc.ModernUIMod.LOGGER;
  * Unicode code points without text shaping. If such a font wins the font itemization,
  * the layout engine will create a ReplacementRun, just like color emojis.
  * <p>
+ * The image header is validated on creation, and the image is decoded on first use,
+ * see {@link #ensureLoaded()}, so a font that is never drawn is never decoded.
+ * <p>
  * Thread safety: this class is not thread safe, it must be safely published. Bitmap font
  * can be created from any thread; the glyph info can be queried from any thread; it can
  * only be rendered and closed on Minecraft main thread (i.e. OpenGL thread).
@@ -81,9 +91,38 @@ public class BitmapFont implements Font, AutoCloseable {
 
     public static float sBitmapOffset = 0.5f;
 
+    /**
+     * Scan grid rows in parallel if there are at least this many glyphs.
+     */
+    private static final int PARALLEL_SCAN_THRESHOLD = 256;
+    private static final int MAX_GLYPH_WIDTH_CACHE_SIZE = 256;
+    /**
+     * Actual glyph widths by image content, so the same image never needs to be scanned twice,
+     * e.g. the bundle is reloaded because of other changes.
+     */
+    private static final ConcurrentHashMap<WidthKey, int[]> sGlyphWidthCache = new ConcurrentHashMap<>();
+
+    private record WidthKey(int length, int hash, long checksum, int rows, int cols) {
+    }
+
     private final Identifier mName;
     private final Identifier mTextureName;
 
+    /**
+     * The encoded image, decoded on first use and then released, see {@link #ensureLoaded()}.
+     */
+    @Nullable
+    private byte[] mData;
+    private volatile boolean mLoaded;
+    /**
+     * True if the image failed to decode, then this font provides no glyphs.
+     */
+    private volatile boolean mFailed;
+    /**
+     * Code points declared in the grid, known without decoding the image.
+     */
+    private final IntOpenHashSet mCodepoints = new IntOpenHashSet();
+
     private Bitmap mBitmap;
     private final Int2ObjectOpenHashMap<Glyph> mGlyphs = new Int2ObjectOpenHashMap<>();
 
@@ -95,25 +134,81 @@ public class BitmapFont implements Font, AutoCloseable {
     private final int mAscent;  // positive
     private final int mDescent; // positive
 
-    private final int mSpriteWidth;
-    private final int mSpriteHeight;
-    private final float mScaleFactor;
+    private int mSpriteWidth;
+    private int mSpriteHeight;
+    private float mScaleFactor;
     private final int[][] mCodepointGrid;
 
-    private BitmapFont(Identifier name, Bitmap bitmap,
-                       int[][] grid, int rows, int cols,
-                       int height, int ascent) {
+    private BitmapFont(Identifier name, byte[] data,
+                       int[][] grid, int height, int ascent) {
         mName = name;
         // add suffix to avoid conflict with GlyphStitcher's naming,
         // if we use dedicated texture
         mTextureName = mName.withSuffix("/mui_dedicated");
-        mBitmap = bitmap;
+        mData = data;
         mAscent = ascent;
         mDescent = height - ascent;
+        mCodepointGrid = grid;
+        for (int[] row : grid) {
+            for (int ch : row) {
+                if (ch == '\u0000') {
+                    continue; // padding
+                }
+                if (!mCodepoints.add(ch)) {
+                    LOGGER.warn(GlyphManager.MARKER, "Codepoint '{}' declared multiple times in {}",
+                            Integer.toHexString(ch), mName);
+                }
+            }
+        }
+    }
+
+    /**
+     * Decode the image and compute glyph metrics if not yet.
+     */
+    private void ensureLoaded() {
+        if (!mLoaded) {
+            synchronized (this) {
+                if (!mLoaded) {
+                    load();
+                    mLoaded = true;
+                }
+            }
+        }
+    }
+
+    private void load() {
+        final byte[] data = mData;
+        mData = null;
+        if (data == null) {
+            // closed
+            return;
+        }
+        final Bitmap bitmap;
+        final WidthKey widthKey;
+        try {
+            //XXX: Minecraft doesn't use texture views, read swizzles may not work,
+            // so we always use RGBA (colored)
+            var opts = new BitmapFactory.Options();
+            opts.inPreferredFormat = Bitmap.Format.RGBA_8888;
+            bitmap = BitmapFactory.decodeStream(new ByteArrayInputStream(data), opts);
+            Objects.requireNonNull(bitmap);
+            var checksum = new CRC32();
+            checksum.update(data);
+            widthKey = new WidthKey(data.length, Arrays.hashCode(data), checksum.getValue(),
+                    mCodepointGrid.length, mCodepointGrid[0].length);
+        } catch (Exception e) {
+            LOGGER.error(GlyphManager.MARKER, "Failed to decode bitmap font {}", mName, e);
+            mFailed = true;
+            return;
+        }
+        final int[][] grid = mCodepointGrid;
+        final int rows = grid.length;
+        final int cols = grid[0].length;
+        final int height = mAscent + mDescent;
+        mBitmap = bitmap;
         mSpriteWidth = bitmap.getWidth() / cols;
         mSpriteHeight = bitmap.getHeight() / rows;
         mScaleFactor = (float) height / mSpriteHeight;
-        mCodepointGrid = grid;
 
         // height <= 0 means nothing to render
         boolean isEmpty = height <= 0 || mSpriteWidth <= 0 || mSpriteHeight <= 0 ||
@@ -125,6 +220,8 @@ public class BitmapFont implements Font, AutoCloseable {
             mBakedGlyphs = new Int2ObjectOpenHashMap<>();
         }
 
+        final int[] actualWidths = getActualGlyphWidths(bitmap, widthKey, mSpriteWidth, mSpriteHeight);
+
         int numEmptyGlyphs = 0;
         for (int r = 0; r < rows; r++) {
             for (int c = 0; c < cols; c++) {
@@ -133,7 +230,7 @@ public class BitmapFont implements Font, AutoCloseable {
                     numEmptyGlyphs++;
                     continue; // padding
                 }
-                int actualWidth = getActualGlyphWidth(bitmap, mSpriteWidth, mSpriteHeight, c, r);
+                int actualWidth = actualWidths[r * cols + c];
                 // (width == 0) means the glyph is fully transparent
                 if (actualWidth <= 0) {
                     numEmptyGlyphs++;
@@ -143,10 +240,7 @@ public class BitmapFont implements Font, AutoCloseable {
                 Glyph glyph = new Glyph((int) (0.5 + actualWidth * mScaleFactor) + 1,
                         c * mSpriteWidth, r * mSpriteHeight,
                         actualWidth <= 0);
-                if (mGlyphs.put(ch, glyph) != null) {
-                    LOGGER.warn(GlyphManager.MARKER, "Codepoint '{}' declared multiple times in {}",
-                            Integer.toHexString(ch), mName);
-                }
+                mGlyphs.put(ch, glyph);
                 if (useDedicatedTexture) {
                     ModernBakedGlyph bakedGlyph = new ModernBakedGlyph();
                     setGlyphMetrics(bakedGlyph);
@@ -168,8 +262,12 @@ public class BitmapFont implements Font, AutoCloseable {
         }
     }
 
+    /**
+     * @param definition the provider definition
+     * @param data       the encoded image file, or null if it failed to read
+     */
     @Nonnull
-    public static BitmapFont create(BitmapProvider.Definition definition, ResourceManager manager) {
+    public static BitmapFont create(BitmapProvider.Definition definition, @Nullable byte[] data) {
         int height = definition.height();
         int ascent = definition.ascent();
         if (ascent > height) {
@@ -179,21 +277,102 @@ public class BitmapFont implements Font, AutoCloseable {
         if (grid.length == 0 || grid[0].length == 0) {
             throw new JsonParseException("Expected to find data in chars, found none.");
         }
-        int rows = grid.length;
-        int cols = grid[0].length;
         var file = definition.file();
         var location = file.withPrefix("textures/");
-        try (InputStream stream = manager.open(location)) {
-            //XXX: Minecraft doesn't use texture views, read swizzles may not work,
-            // so we always use RGBA (colored)
-            var opts = new BitmapFactory.Options();
-            opts.inPreferredFormat = Bitmap.Format.RGBA_8888;
-            Bitmap bitmap = BitmapFactory.decodeStream(stream, opts);
-            Objects.requireNonNull(bitmap);
-            return new BitmapFont(file, bitmap, grid, rows, cols, height, ascent);
-        } catch (Exception e) {
+        // only validate the image header here, decoding is deferred,
+        // a malformed file fails now so that the provider is skipped
+        try {
+            if (data == null) {
+                throw new FileNotFoundException(location.toString());
+            }
+            checkImageHeader(data, location);
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        return new BitmapFont(file, data, grid, height, ascent);
+    }
+
+    private static final byte[] PNG_SIGNATURE = {
+            (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'
+    };
+
+    // vanilla only accepts PNG, check the signature and the IHDR chunk
+    private static void checkImageHeader(@Nonnull byte[] data, Identifier location) throws IOException {
+        if (data.length < 24 || !Arrays.equals(data, 0, 8, PNG_SIGNATURE, 0, 8) ||
+                data[12] != 'I' || data[13] != 'H' || data[14] != 'D' || data[15] != 'R') {
+            throw new IOException("Bad PNG signature or header in " + location);
+        }
+        int width = (data[16] & 0xFF) << 24 | (data[17] & 0xFF) << 16 | (data[18] & 0xFF) << 8 | (data[19] & 0xFF);
+        int height = (data[20] & 0xFF) << 24 | (data[21] & 0xFF) << 16 | (data[22] & 0xFF) << 8 | (data[23] & 0xFF);
+        if (width <= 0 || height <= 0) {
+            throw new IOException("Bad PNG dimensions " + width + "x" + height + " in " + location);
+        }
+    }
+
+    @Nonnull
+    private static int[] getActualGlyphWidths(Bitmap bitmap, WidthKey key, int width, int height) {
+        int[] widths = sGlyphWidthCache.get(key);
+        if (widths != null) {
+            return widths;
+        }
+        final int rows = key.rows();
+        final int cols = key.cols();
+        final int[] result = new int[rows * cols];
+        if (width > 0 && height > 0) {
+            if (rows * cols >= PARALLEL_SCAN_THRESHOLD) {
+                IntStream.range(0, rows).parallel()
+                        .forEach(r -> scanGlyphWidths(bitmap, width, height, cols, r, result));
+            } else {
+                for (int r = 0; r < rows; r++) {
+                    scanGlyphWidths(bitmap, width, height, cols, r, result);
+                }
+            }
+        }
+        if (sGlyphWidthCache.size() >= MAX_GLYPH_WIDTH_CACHE_SIZE) {
+            sGlyphWidthCache.clear();
+        }
+        sGlyphWidthCache.put(key, result);
+        return result;
+    }
+
+    /**
+     * Scan a grid row line by line, find the rightmost non-transparent column of each glyph.
+     * Every pixel line is visited once and only the part on the right of the column found
+     * so far is tested, two pixels at a time.
+     */
+    private static void scanGlyphWidths(Bitmap bitmap, int width, int height, int cols, int row,
+                                        int[] out) {
+        final int offset = row * cols;
+        if (bitmap.getFormat() != Bitmap.Format.RGBA_8888 ||
+                ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN) {
+            for (int c = 0; c < cols; c++) {
+                out[offset + c] = getActualGlyphWidth(bitmap, width, height, c, row);
+            }
+            return;
+        }
+        // RGBA in byte order, alpha is the highest byte of each pixel
+        final long base = bitmap.getAddress();
+        final long rowBytes = bitmap.getRowBytes();
+        for (int j = 0; j < height; j++) {
+            final long line = base + (long) (row * height + j) * rowBytes;
+            for (int c = 0; c < cols; c++) {
+                final int found = out[offset + c];
+                if (found == width) {
+                    continue;
+                }
+                final long cell = line + ((long) c * width << 2);
+                int i = width;
+                while (i - 2 >= found &&
+                        (MemoryUtil.memGetLong(cell + ((long) (i - 2) << 2)) & 0xFF000000_FF000000L) == 0) {
+                    i -= 2;
+                }
+                while (i > found &&
+                        (MemoryUtil.memGetInt(cell + ((long) (i - 1) << 2)) & 0xFF000000) == 0) {
+                    i--;
+                }
+                out[offset + c] = i;
+            }
+        }
     }
 
     private static int getActualGlyphWidth(Bitmap bitmap, int width, int height, int col, int row) {
@@ -276,6 +455,12 @@ public class BitmapFont implements Font, AutoCloseable {
     }
 
     public void dumpAtlas(int index, String path) {
+        if (!mLoaded) {
+            LOGGER.info(GlyphManager.MARKER, "BitmapFont {}: {}, ascent: {}, descent: {}, numCodepoints: {}, " +
+                            "not loaded",
+                    index, mName, getAscent(), getDescent(), mCodepoints.size());
+            return;
+        }
         LOGGER.info(GlyphManager.MARKER, "BitmapFont {}: {}, ascent: {}, descent: {}, numGlyphs: {}, " +
                         "nothingToDraw: {}, fitsInAtlas: {}, dedicatedTexture: {}",
                 index, mName, getAscent(), getDescent(), mGlyphs.size(),
@@ -312,6 +497,7 @@ public class BitmapFont implements Font, AutoCloseable {
 
     @Nullable
     public Glyph getGlyph(int ch) {
+        ensureLoaded();
         return mGlyphs.get(ch);
     }
 
@@ -320,6 +506,7 @@ public class BitmapFont implements Font, AutoCloseable {
      * has negative metrics).
      */
     public boolean nothingToDraw() {
+        ensureLoaded();
         return mBitmap == null;
     }
 
@@ -328,6 +515,7 @@ public class BitmapFont implements Font, AutoCloseable {
      * false to use a dedicated texture that is managed by this instance.
      */
     public boolean fitsInAtlas() {
+        ensureLoaded();
         return mBakedGlyphs == null;
     }
 
@@ -345,6 +533,8 @@ public class BitmapFont implements Font, AutoCloseable {
 
     @SuppressWarnings("ConstantValue")
     public void setGlyphMetrics(@Nonnull ModernBakedGlyph glyph) {
+        // also called while loading, the font must have been loaded
+        assert mLoaded || Thread.holdsLock(this);
         // bearing x, bearing y
         glyph.x = 0;
         // there shouldn't be any overflow, because vanilla uses float,
@@ -360,6 +550,7 @@ public class BitmapFont implements Font, AutoCloseable {
     }
 
     public boolean getGlyphImage(int ch, long dst) {
+        ensureLoaded();
         assert mBitmap != null;
         Glyph src = getGlyph(ch);
         if (src == null || src.isEmpty) {
@@ -383,6 +574,7 @@ public class BitmapFont implements Font, AutoCloseable {
     // Render thread only
     @Nullable
     public ModernBakedGlyph getBakedGlyph(int ch) {
+        ensureLoaded();
         assert mBitmap != null && mBakedGlyphs != null;
         ModernBakedGlyph glyph = mBakedGlyphs.get(ch);
         if (glyph != null && mTexture == null) {
@@ -413,14 +605,17 @@ public class BitmapFont implements Font, AutoCloseable {
     }
 
     public int getSpriteWidth() {
+        ensureLoaded();
         return mSpriteWidth;
     }
 
     public int getSpriteHeight() {
+        ensureLoaded();
         return mSpriteHeight;
     }
 
     public float getScaleFactor() {
+        ensureLoaded();
         return mScaleFactor;
     }
 
@@ -431,7 +626,8 @@ public class BitmapFont implements Font, AutoCloseable {
 
     @Override
     public boolean hasGlyph(int ch, int vs) {
-        return mGlyphs.containsKey(ch);
+        // coverage is known without decoding the image, unless decoding failed
+        return !mFailed && mCodepoints.contains(ch);
     }
 
     @Override
@@ -529,7 +725,8 @@ public class BitmapFont implements Font, AutoCloseable {
     }
 
     @Override
-    public void close() {
+    public synchronized void close() {
+        mData = null;
         if (mBitmap != null) {
             mBitmap.close();
             mBitmap = null;
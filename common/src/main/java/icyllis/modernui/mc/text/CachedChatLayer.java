@@ -0,0 +1,377 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2025 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.mc.text;
+
+import com.mojang.blaze3d.ProjectionType;
+import com.mojang.blaze3d.buffers.GpuBuffer;
+import com.mojang.blaze3d.buffers.GpuBufferSlice;
+import com.mojang.blaze3d.pipeline.RenderPipeline;
+import com.mojang.blaze3d.pipeline.TextureTarget;
+import com.mojang.blaze3d.systems.RenderPass;
+import com.mojang.blaze3d.systems.RenderSystem;
+import com.mojang.blaze3d.textures.FilterMode;
+import com.mojang.blaze3d.vertex.BufferBuilder;
+import com.mojang.blaze3d.vertex.ByteBufferBuilder;
+import com.mojang.blaze3d.vertex.MeshData;
+import com.mojang.blaze3d.vertex.VertexFormat;
+import icyllis.modernui.annotation.RenderThread;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.gui.navigation.ScreenRectangle;
+import net.minecraft.client.gui.render.TextureSetup;
+import net.minecraft.client.renderer.CachedOrthoProjectionMatrixBuffer;
+import net.minecraft.client.renderer.RenderPipelines;
+import net.minecraft.client.renderer.state.gui.BlitRenderState;
+import net.minecraft.client.renderer.state.gui.GuiElementRenderState;
+import net.minecraft.client.renderer.state.gui.GuiRenderState;
+import net.minecraft.client.renderer.state.gui.GuiTextRenderState;
+import org.joml.Matrix3x2f;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.joml.Vector4f;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.OptionalDouble;
+import java.util.OptionalInt;
+
+/**
+ * Renders the chat lines in HUD into an offscreen layer, and composites the layer with
+ * a single blit while the lines are unchanged, so chat glyphs are not prepared and
+ * rebuilt every frame. Enabled by {@link ModernTextRenderer#sCachedChatLayer}.
+ * <p>
+ * The text submitted while the chat is being extracted is captured. The layer is valid
+ * as long as the text is the same as that of the last frame: the same line objects,
+ * positions, colors and transforms. A new message, scrolling or a fade step changes the
+ * lines or their colors; a GUI scale change or text engine reload invalidates the layer.
+ * The layer is rendered once the text stays unchanged for two frames, until then (and
+ * for obfuscated text) the text is submitted as usual.
+ */
+@RenderThread
+public final class CachedChatLayer {
+
+    private static final CachedChatLayer sInstance = new CachedChatLayer();
+
+    // text captured in the current chat extraction
+    private ArrayList<GuiTextRenderState> mTexts = new ArrayList<>();
+    // text of the last chat extraction
+    private ArrayList<GuiTextRenderState> mLastTexts = new ArrayList<>();
+    @Nullable
+    private GuiRenderState mRenderState;
+    private boolean mCapturing;
+
+    // whether the layer contains the last text
+    private boolean mLayerValid;
+    // whether the last text can't be rendered to the layer
+    private boolean mUncacheable;
+    private int mGuiScale;
+    // the layer bounds in GUI coordinates, null if the layer is empty
+    @Nullable
+    private ScreenRectangle mLayerBounds;
+
+    @Nullable
+    private TextureTarget mTarget;
+    @Nullable
+    private CachedOrthoProjectionMatrixBuffer mProjection;
+    @Nullable
+    private ByteBufferBuilder mVertexBuilder;
+
+    private CachedChatLayer() {
+    }
+
+    public static CachedChatLayer getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Called before the chat is extracted.
+     */
+    public void begin() {
+        mTexts.clear();
+        mRenderState = null;
+        mCapturing = ModernTextRenderer.sCachedChatLayer;
+        if (!mCapturing && mTarget != null) {
+            close();
+        }
+    }
+
+    /**
+     * Called when text is submitted to the GUI render state.
+     *
+     * @return true if the text is captured and should not be submitted
+     */
+    public boolean captureText(@Nonnull GuiRenderState renderState, @Nonnull GuiTextRenderState text) {
+        if (!mCapturing) {
+            return false;
+        }
+        if (mRenderState == null) {
+            mRenderState = renderState;
+        } else if (mRenderState != renderState) {
+            return false;
+        }
+        mTexts.add(text);
+        return true;
+    }
+
+    /**
+     * Called after the chat is extracted, submits the captured text or the layer.
+     */
+    public void end() {
+        if (!mCapturing) {
+            return;
+        }
+        mCapturing = false;
+        final GuiRenderState renderState = mRenderState;
+        mRenderState = null;
+        if (renderState == null) {
+            // no line is visible
+            mLastTexts.clear();
+            mLayerValid = false;
+            return;
+        }
+        final int guiScale = Math.round((float) Minecraft.getInstance().getWindow().getGuiScale());
+        final boolean unchanged = guiScale == mGuiScale && isSameText(mTexts, mLastTexts);
+        // the text of this frame is used for next comparison and layer rendering,
+        // the old one may hold prepared text of a previous layout generation
+        var texts = mTexts;
+        mTexts = mLastTexts;
+        mLastTexts = texts;
+        mTexts.clear();
+        if (!unchanged) {
+            mGuiScale = guiScale;
+            mLayerValid = false;
+            mUncacheable = false;
+        } else if (!mLayerValid && !mUncacheable) {
+            mLayerValid = renderLayer(texts, guiScale);
+            mUncacheable = !mLayerValid;
+        }
+        if (mLayerValid) {
+            if (mLayerBounds != null) {
+                assert mTarget != null;
+                final ScreenRectangle bounds = mLayerBounds;
+                renderState.addGuiElement(new BlitRenderState(
+                        // render target is premultiplied
+                        RenderPipelines.GUI_TEXTURED_PREMULTIPLIED_ALPHA,
+                        // one texel per screen pixel
+                        TextureSetup.singleTexture(mTarget.getColorTextureView(),
+                                RenderSystem.getSamplerCache().getClampToEdge(FilterMode.NEAREST)),
+                        new Matrix3x2f(),
+                        bounds.left(), bounds.top(), bounds.right(), bounds.bottom(),
+                        0.0F, 1.0F, 1.0F, 0.0F,
+                        ~0,
+                        /*scissorArea*/ null
+                ));
+            }
+        } else {
+            for (int i = 0; i < texts.size(); i++) {
+                renderState.addText(texts.get(i));
+            }
+        }
+    }
+
+    /**
+     * Invalidate the layer, called when the text layout engine is cleared.
+     */
+    public void invalidate() {
+        mLastTexts.clear();
+        mLayerValid = false;
+        mUncacheable = false;
+    }
+
+    private static boolean isSameText(@Nonnull ArrayList<GuiTextRenderState> texts,
+                                      @Nonnull ArrayList<GuiTextRenderState> lastTexts) {
+        if (texts.size() != lastTexts.size()) {
+            return false;
+        }
+        for (int i = 0; i < texts.size(); i++) {
+            var a = texts.get(i);
+            var b = lastTexts.get(i);
+            // chat lines are the same objects until chat is refreshed
+            if (a.text != b.text ||
+                    a.font != b.font ||
+                    a.x != b.x ||
+                    a.y != b.y ||
+                    a.color != b.color ||
+                    a.backgroundColor != b.backgroundColor ||
+                    a.dropShadow != b.dropShadow ||
+                    !a.pose.equals(b.pose) ||
+                    !Objects.equals(a.scissor, b.scissor)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return false if the text can't be rendered to the layer
+     */
+    private boolean renderLayer(@Nonnull ArrayList<GuiTextRenderState> texts, int guiScale) {
+        final ArrayList<GuiElementRenderState> elements = new ArrayList<>();
+        int left = Integer.MAX_VALUE, top = Integer.MAX_VALUE;
+        int right = Integer.MIN_VALUE, bottom = Integer.MIN_VALUE;
+        for (int i = 0; i < texts.size(); i++) {
+            var text = texts.get(i);
+            if (!(text.ensurePrepared() instanceof ModernPreparedText preparedText) ||
+                    preparedText.isAnimated()) {
+                return false;
+            }
+            ScreenRectangle bounds = text.bounds();
+            if (bounds == null) {
+                continue;
+            }
+            left = Math.min(left, bounds.left());
+            top = Math.min(top, bounds.top());
+            right = Math.max(right, bounds.right());
+            bottom = Math.max(bottom, bounds.bottom());
+            preparedText.submitRuns(elements::add, text.pose, text.scissor);
+        }
+        var window = Minecraft.getInstance().getWindow();
+        left = Math.max(left, 0);
+        top = Math.max(top, 0);
+        right = Math.min(right, window.getGuiScaledWidth());
+        bottom = Math.min(bottom, window.getGuiScaledHeight());
+        if (left >= right || top >= bottom || elements.isEmpty()) {
+            mLayerBounds = null;
+            return true;
+        }
+        final ScreenRectangle bounds = new ScreenRectangle(left, top, right - left, bottom - top);
+        final int width = bounds.width() * guiScale;
+        final int height = bounds.height() * guiScale;
+
+        if (mTarget == null) {
+            mTarget = new TextureTarget("Modern UI Chat Layer", width, height, true);
+            mProjection = new CachedOrthoProjectionMatrixBuffer("Modern UI Chat Layer",
+                    1000.0F, 11000.0F, true);
+            mVertexBuilder = new ByteBufferBuilder(32768);
+        } else if (mTarget.width != width || mTarget.height != height) {
+            mTarget.resize(width, height);
+        }
+        assert mProjection != null && mVertexBuilder != null;
+
+        // batch the consecutive states that use the same pipeline, textures and scissor
+        final var device = RenderSystem.getDevice();
+        final ArrayList<Draw> draws = new ArrayList<>();
+        int maxIndexCount = 0;
+        for (int i = 0, e = elements.size(); i < e; ) {
+            var first = elements.get(i);
+            var pipeline = first.pipeline();
+            var textureSetup = first.textureSetup();
+            var scissor = first.scissorArea();
+            var builder = new BufferBuilder(mVertexBuilder,
+                    pipeline.getVertexFormatMode(), pipeline.getVertexFormat());
+            do {
+                elements.get(i++).buildVertices(builder);
+            } while (i < e && elements.get(i).pipeline() == pipeline &&
+                    elements.get(i).textureSetup().equals(textureSetup) &&
+                    Objects.equals(elements.get(i).scissorArea(), scissor));
+            try (MeshData mesh = builder.build()) {
+                if (mesh != null) {
+                    int indexCount = mesh.drawState().indexCount();
+                    draws.add(new Draw(pipeline, textureSetup, scissor,
+                            device.createBuffer(() -> "Modern UI Chat Layer", GpuBuffer.USAGE_VERTEX,
+                                    mesh.vertexBuffer()),
+                            indexCount));
+                    maxIndexCount = Math.max(maxIndexCount, indexCount);
+                }
+            }
+        }
+
+        var indices = RenderSystem.getSequentialBuffer(VertexFormat.Mode.QUADS);
+        GpuBuffer indexBuffer = indices.getBuffer(maxIndexCount);
+        RenderSystem.backupProjectionMatrix();
+        RenderSystem.setProjectionMatrix(mProjection.getBuffer(bounds.width(), bounds.height()),
+                ProjectionType.ORTHOGRAPHIC);
+        // same as GUI renderer, but the layer origin is at the top left of its bounds
+        GpuBufferSlice transforms = RenderSystem.getDynamicUniforms().writeTransform(
+                new Matrix4f().setTranslation(-bounds.left(), -bounds.top(), -11000.0F),
+                new Vector4f(1.0F, 1.0F, 1.0F, 1.0F),
+                new Vector3f(),
+                new Matrix4f()
+        );
+        try (RenderPass pass = device.createCommandEncoder().createRenderPass(
+                () -> "Modern UI Chat Layer",
+                mTarget.getColorTextureView(), OptionalInt.of(0),
+                mTarget.getDepthTextureView(), OptionalDouble.of(1.0))) {
+            RenderSystem.bindDefaultUniforms(pass);
+            pass.setUniform("DynamicTransforms", transforms);
+            for (Draw draw : draws) {
+                pass.setPipeline(draw.pipeline);
+                pass.setVertexBuffer(0, draw.vertexBuffer);
+                if (draw.scissor != null) {
+                    var s = draw.scissor;
+                    pass.enableScissor(
+                            (s.left() - bounds.left()) * guiScale,
+                            height - (s.bottom() - bounds.top()) * guiScale,
+                            Math.max(0, s.width() * guiScale),
+                            Math.max(0, s.height() * guiScale)
+                    );
+                } else {
+                    pass.disableScissor();
+                }
+                var textureSetup = draw.textureSetup;
+                if (textureSetup.texure0() != null) {
+                    pass.bindTexture("Sampler0", textureSetup.texure0(), textureSetup.sampler0());
+                }
+                if (textureSetup.texure1() != null) {
+                    pass.bindTexture("Sampler1", textureSetup.texure1(), textureSetup.sampler1());
+                }
+                if (textureSetup.texure2() != null) {
+                    pass.bindTexture("Sampler2", textureSetup.texure2(), textureSetup.sampler2());
+                }
+                pass.setIndexBuffer(indexBuffer, indices.type());
+                pass.drawIndexed(0, 0, draw.indexCount, 1);
+            }
+        } finally {
+            RenderSystem.restoreProjectionMatrix();
+            for (Draw draw : draws) {
+                draw.vertexBuffer.close();
+            }
+        }
+        mLayerBounds = bounds;
+        return true;
+    }
+
+    /**
+     * Release the layer.
+     */
+    public void close() {
+        if (mTarget != null) {
+            mTarget.destroyBuffers();
+            mTarget = null;
+        }
+        if (mProjection != null) {
+            mProjection.close();
+            mProjection = null;
+        }
+        if (mVertexBuilder != null) {
+            mVertexBuilder.close();
+            mVertexBuilder = null;
+        }
+        mLastTexts.clear();
+        mLayerValid = false;
+        mUncacheable = false;
+        mLayerBounds = null;
+    }
+
+    private record Draw(RenderPipeline pipeline, TextureSetup textureSetup,
+                        @Nullable ScreenRectangle scissor,
+                        GpuBuffer vertexBuffer, int indexCount) {
+    }
+}
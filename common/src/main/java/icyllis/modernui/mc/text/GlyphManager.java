@@ -28,9 +28,12 @@ import icyllis.modernui.graphics.text.EmojiFont;
 import icyllis.modernui.graphics.text.Font;
 import icyllis.modernui.graphics.text.FontCollection;
 import icyllis.modernui.graphics.text.OutlineFont;
+import icyllis.modernui.mc.DeferredCleanup;
+import icyllis.modernui.mc.FrameTimings;
 import icyllis.modernui.mc.ModernUIMod;
 import icyllis.modernui.mc.text.mixin.AccessFontManager;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.font.FontManager;
@@ -57,7 +60,9 @@ import java.io.InputStream;
 import java.io.PrintWriter;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Objects;
 import java.util.Random;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -134,15 +139,21 @@ public class GlyphManager {
      */
     private HashMap<java.awt.Font, GlyphStrike> mFontTable = new HashMap<>();
     private final Function<java.awt.Font, GlyphStrike> mFontTableMapper =
-            f -> new GlyphStrike(mFontTable.size() + 1);
+            f -> new GlyphStrike(++mLastFontKey);
 
     private final Object2IntOpenHashMap<EmojiFont> mEmojiFontTable = new Object2IntOpenHashMap<>();
     private final ToIntFunction<EmojiFont> mEmojiFontTableMapper =
-            f -> mEmojiFontTable.size() + 1;
+            f -> ++mLastFontKey;
 
     private HashMap<BitmapFont, GlyphStrike> mBitmapFontTable = new HashMap<>();
     private final Function<BitmapFont, GlyphStrike> mBitmapFontTableMapper =
-            f -> new GlyphStrike(mBitmapFontTable.size() + 1);
+            f -> new GlyphStrike(++mLastFontKey);
+
+    /**
+     * Font keys are never reused until {@link #reload()}, so that a glyph key of an evicted
+     * font never refers to a glyph of another font, see {@link #evictFonts(Collection)}.
+     */
+    private int mLastFontKey;
 
     private static class GlyphStrike {
 
@@ -187,7 +198,12 @@ public class GlyphManager {
 
     //private ByteBuffer mEmojiBuffer;
 
-    private long mLastPurgeNanos;
+    /**
+     * Compaction clears chunks round-robin rather than by use, and the invalidation callback
+     * drops every layout, so it only runs when an atlas is more than half full, or an atlas
+     * has run out of space, see {@link #onEndRenderTick()}.
+     */
+    private final DeferredCleanup mCompaction = new DeferredCleanup("Glyph Atlas", 5_000, 60_000);
 
     private final CopyOnWriteArrayList<Consumer<AtlasInvalidationInfo>> mAtlasInvalidationCallbacks
             = new CopyOnWriteArrayList<>();
@@ -257,9 +273,68 @@ public class GlyphManager {
         mBitmapFontTable.values().forEach(s -> s.mFastCharMap.clear());
         mBitmapFontTable.clear();
         mBitmapFontTable = new HashMap<>();
+        mLastFontKey = 0;
         allocateImage();
     }
 
+    /**
+     * Forget the given fonts without dropping the atlases, called when font resources
+     * are partially reloaded. Their glyphs are removed from the atlases, but the texture
+     * area they occupy is only reclaimed when atlas compaction clears the chunk. A font
+     * equal to an evicted one will get a new key.
+     *
+     * @param fonts the fonts that were removed or replaced
+     */
+    @RenderThread
+    public void evictFonts(@Nonnull Collection<? extends Font> fonts) {
+        if (fonts.isEmpty()) {
+            return;
+        }
+        var outlineFontNames = new HashSet<String>();
+        var outlineKeys = new IntOpenHashSet();
+        var emojiKeys = new IntOpenHashSet();
+        var bitmapKeys = new IntOpenHashSet();
+        for (Font font : fonts) {
+            if (font instanceof TrueTypeFont trueTypeFont) {
+                // never parsed, nothing to evict
+                font = trueTypeFont.peekOutlineFont();
+            }
+            if (font instanceof OutlineFont outlineFont) {
+                // derived fonts (size and style) share the same name
+                outlineFontNames.add(outlineFont.chooseFont(1).getName());
+            } else if (font instanceof BitmapFont bitmapFont) {
+                GlyphStrike strike = mBitmapFontTable.remove(bitmapFont);
+                if (strike != null) {
+                    bitmapKeys.add(strike.mStrikeId);
+                }
+            } else if (font instanceof EmojiFont emojiFont) {
+                if (mEmojiFontTable.containsKey(emojiFont)) {
+                    emojiKeys.add(mEmojiFontTable.removeInt(emojiFont));
+                }
+            }
+        }
+        if (!outlineFontNames.isEmpty()) {
+            mFontTable.entrySet().removeIf(entry -> {
+                if (outlineFontNames.contains(entry.getKey().getName())) {
+                    outlineKeys.add(entry.getValue().mStrikeId);
+                    return true;
+                }
+                return false;
+            });
+        }
+        int count = 0;
+        if (mFontAtlas != null && !outlineKeys.isEmpty()) {
+            count += mFontAtlas.removeGlyphs(outlineKeys);
+        }
+        if (mEmojiAtlas != null && !emojiKeys.isEmpty()) {
+            count += mEmojiAtlas.removeGlyphs(emojiKeys);
+        }
+        if (mBitmapAtlas != null && !bitmapKeys.isEmpty()) {
+            count += mBitmapAtlas.removeGlyphs(bitmapKeys);
+        }
+        LOGGER.debug(MARKER, "Evicted {} fonts, removed {} glyphs", fonts.size(), count);
+    }
+
     /**
      * Given a font, perform full text layout/shaping and create a new GlyphVector for a text.
      *
@@ -326,6 +401,13 @@ public class GlyphManager {
     @Nullable
     @RenderThread
     public ModernBakedGlyph lookupGlyph(@Nonnull Font font, int fontSize, int glyphId) {
+        if (font instanceof TrueTypeFont trueTypeFont) {
+            // already parsed if it has laid-out glyphs
+            font = trueTypeFont.getOutlineFont();
+            if (font == null) {
+                return null;
+            }
+        }
         if (font instanceof OutlineFont) {
             java.awt.Font awtFont = ((OutlineFont) font).chooseFont(fontSize);
             long key = computeGlyphKey(awtFont, glyphId);
@@ -338,13 +420,15 @@ public class GlyphManager {
             }
             ModernBakedGlyph glyph = mFontAtlas.getGlyph(key);
             if (glyph != null && glyph.x == Integer.MIN_VALUE) {
-                return cacheGlyph(
+                final long startNanos = System.nanoTime();
+                glyph = cacheGlyph(
                         awtFont,
                         glyphId,
                         mFontAtlas,
                         glyph,
                         key
                 );
+                FrameTimings.addTextNanos(System.nanoTime() - startNanos);
             }
             return glyph;
         } else if (font instanceof EmojiFont emojiFont) {
@@ -358,13 +442,15 @@ public class GlyphManager {
             }
             ModernBakedGlyph glyph = mEmojiAtlas.getGlyph(key);
             if (glyph != null && glyph.x == Integer.MIN_VALUE) {
-                return cacheEmoji(
+                final long startNanos = System.nanoTime();
+                glyph = cacheEmoji(
                         emojiFont,
                         glyphId,
                         mEmojiAtlas,
                         glyph,
                         key
                 );
+                FrameTimings.addTextNanos(System.nanoTime() - startNanos);
             }
             return glyph;
         } else if (font instanceof BitmapFont bitmapFont) {
@@ -381,13 +467,15 @@ public class GlyphManager {
                 }
                 ModernBakedGlyph glyph = mBitmapAtlas.getGlyph(key);
                 if (glyph != null && glyph.x == Integer.MIN_VALUE) {
-                    return cacheBitmapGlyph(
+                    final long startNanos = System.nanoTime();
+                    glyph = cacheBitmapGlyph(
                             bitmapFont,
                             glyphId,
                             mBitmapAtlas,
                             glyph,
                             key
                     );
+                    FrameTimings.addTextNanos(System.nanoTime() - startNanos);
                 }
                 return glyph;
             } else {
@@ -474,9 +562,16 @@ public class GlyphManager {
      * Clear unused entries and perform atlas resizing.
      */
     public void onEndRenderTick() {
-        if (System.nanoTime() - mLastPurgeNanos >= 20_000_000_000L) {
-            mLastPurgeNanos = System.nanoTime();
+        // pressure of the fullest atlas, an atlas that has run out of space
+        // needs compaction as soon as possible
+        final boolean outOfSpace = isOutOfSpace(mFontAtlas) ||
+                isOutOfSpace(mEmojiAtlas) || isOutOfSpace(mBitmapAtlas);
+        final double pressure = outOfSpace ? 1 : Math.max(getPressure(mFontAtlas),
+                Math.max(getPressure(mEmojiAtlas), getPressure(mBitmapAtlas)));
+        if (mCompaction.shouldCleanup(pressure, pressure > DeferredCleanup.LOW_PRESSURE)) {
+            final long usedBytes = getAtlasUsedMemorySize();
             compact();
+            mCompaction.onCleanup(usedBytes, getAtlasUsedMemorySize());
         }
         ModernFontAtlas atlas;
         if ((atlas = mFontAtlas) != null && atlas.mResizeRequested) {
@@ -528,6 +623,25 @@ public class GlyphManager {
         if (mBitmapAtlas != null) {
             mBitmapAtlas.dumpInfo(pw, "BitmapAtlas");
         }
+        mCompaction.dump(pw);
+    }
+
+    private long getAtlasUsedMemorySize() {
+        return getUsedMemorySize(mFontAtlas) +
+                getUsedMemorySize(mEmojiAtlas) +
+                getUsedMemorySize(mBitmapAtlas);
+    }
+
+    private static long getUsedMemorySize(@Nullable ModernFontAtlas atlas) {
+        return atlas != null ? atlas.getUsedMemorySize() : 0;
+    }
+
+    private static boolean isOutOfSpace(@Nullable ModernFontAtlas atlas) {
+        return atlas != null && atlas.mOutOfSpace;
+    }
+
+    private static double getPressure(@Nullable ModernFontAtlas atlas) {
+        return atlas != null ? (double) atlas.getUsedMemorySize() / atlas.getMaxMemorySize() : 0;
     }
 
     @Nullable
@@ -733,6 +847,12 @@ public class GlyphManager {
      */
     @Nullable
     public FastCharSet lookupFastChars(@Nonnull Font font, int fontSize, int glyphId) {
+        if (font instanceof TrueTypeFont trueTypeFont) {
+            font = trueTypeFont.getOutlineFont();
+            if (font == null) {
+                return null;
+            }
+        }
         if (!(font instanceof OutlineFont || font instanceof BitmapFont)) {
             // Emojis are not supported for obfuscated rendering
             return null;
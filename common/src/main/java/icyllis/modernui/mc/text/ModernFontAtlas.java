@@ -38,6 +38,7 @@ import icyllis.modernui.core.Core;
 import icyllis.modernui.mc.ModernUIMod;
 import icyllis.modernui.mc.VulkanModIntegration;
 import icyllis.modernui.text.TextUtils;
+import it.unimi.dsi.fastutil.ints.IntSet;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import net.minecraft.client.renderer.texture.AbstractTexture;
 import net.minecraft.client.renderer.texture.Dumpable;
@@ -88,6 +89,10 @@ public class ModernFontAtlas extends AbstractTexture implements Dumpable {
     private final Long2ObjectOpenHashMap<ModernBakedGlyph> mGlyphs = new Long2ObjectOpenHashMap<>();
 
     boolean mResizeRequested = false;
+    /**
+     * True if a glyph didn't fit while the texture is at max size, until compaction.
+     */
+    boolean mOutOfSpace = false;
 
     private final List<Chunk> mChunks = new ArrayList<>();
 
@@ -178,6 +183,24 @@ public class ModernFontAtlas extends AbstractTexture implements Dumpable {
         mGlyphs.put(key, null);
     }
 
+    /**
+     * Remove the glyphs of the given fonts, a font key is the high 32 bits of a glyph key.
+     * Their texture area is not reused until the chunk is cleared by {@link #compact()}.
+     *
+     * @param fontKeys the font keys
+     * @return the number of glyphs removed
+     */
+    public int removeGlyphs(@Nonnull IntSet fontKeys) {
+        int count = 0;
+        for (var it = mGlyphs.long2ObjectEntrySet().fastIterator(); it.hasNext(); ) {
+            if (fontKeys.contains((int) (it.next().getLongKey() >>> 32))) {
+                it.remove();
+                count++;
+            }
+        }
+        return count;
+    }
+
     public boolean stitch(@NonNull ModernBakedGlyph glyph,
                           @NonNull ByteBuffer pixels, @WillNotClose @Nullable NativeImage mipPixels) {
         if (mWidth == 0) {
@@ -257,6 +280,7 @@ public class ModernFontAtlas extends AbstractTexture implements Dumpable {
             final int oldHeight = mHeight;
 
             if (oldWidth == mMaxTextureSize && oldHeight == mMaxTextureSize) {
+                mOutOfSpace = true;
                 LOGGER.warn(GlyphManager.MARKER, "Font atlas reached max texture size, " +
                         "mask format: {}, max size: {}, current texture: {}", mMaskFormat, mMaxTextureSize, texture);
                 return false;
@@ -438,6 +462,9 @@ public class ModernFontAtlas extends AbstractTexture implements Dumpable {
             }
             cleared = true;
         }
+        if (cleared) {
+            mOutOfSpace = false;
+        }
         return cleared;
     }
 
@@ -560,4 +587,24 @@ public class ModernFontAtlas extends AbstractTexture implements Dumpable {
         }
         return coverage / mChunks.size();
     }
+
+    /**
+     * @return bytes of the texture area covered by glyphs
+     */
+    public long getUsedMemorySize() {
+        double coverage = 0;
+        for (Chunk chunk : mChunks) {
+            coverage += chunk.packer.getCoverage();
+        }
+        int bpp = Engine.maskFormatBytesPerPixel(mMaskFormat);
+        return (long) (coverage * CHUNK_SIZE * CHUNK_SIZE) * bpp;
+    }
+
+    /**
+     * @return bytes of the texture if it reaches the max size
+     */
+    public long getMaxMemorySize() {
+        int bpp = Engine.maskFormatBytesPerPixel(mMaskFormat);
+        return (long) mMaxTextureSize * mMaxTextureSize * bpp;
+    }
 }
@@ -33,6 +33,7 @@ import net.minecraft.client.gui.navigation.ScreenRectangle;
 import net.minecraft.client.gui.render.TextureSetup;
 import net.minecraft.client.renderer.RenderPipelines;
 import net.minecraft.client.renderer.state.gui.GlyphRenderState;
+import net.minecraft.client.renderer.state.gui.GuiElementRenderState;
 import net.minecraft.client.renderer.state.gui.GuiRenderState;
 import net.minecraft.client.renderer.texture.AbstractTexture;
 import net.minecraft.network.chat.Style;
@@ -43,6 +44,7 @@ import org.joml.Matrix3x2fc;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.ArrayList;
+import java.util.function.Consumer;
 
 /**
  * When this object is created, all glyphs are added to the font atlas.
@@ -54,7 +56,7 @@ public class ModernPreparedText implements Font.PreparedText {
             1, 0, false, 0, 0,
             0, 0, 0, 0, null,
             new ArrayList<>(), false, 0,
-            null, null, null, new ArrayList<>()
+            null, null, new ArrayList<>()
     );
 
     private final float density;
@@ -70,15 +72,18 @@ public class ModernPreparedText implements Font.PreparedText {
     private final ArrayList<TextRun> runs;
     private final boolean hasEffect;
     private final float totalAdvance;
-    private final BakedGlyph[] glyphs;
-    private final float[] positions;
+    private final float[] quads;
     private final int[] flags;
     private final ArrayList<TextRenderable> customRenderables;
+    private final float[] effectPositions;
+    private final int[] effectFlags;
+    // obfuscated glyphs are randomized every time the text is prepared
+    private final boolean animated;
 
     ModernPreparedText(float density, float shadowOffset, boolean dropShadow, int color,
                        int bgColor, float x, float top, float xAdj, float yAdj, ScreenRectangle bounds,
                        ArrayList<TextRun> runs, boolean hasEffect, float totalAdvance,
-                       BakedGlyph[] glyphs, float[] positions, int[] flags,
+                       float[] quads, int[] flags,
                        ArrayList<TextRenderable> customRenderables) {
         this.density = density;
         this.shadowOffset = shadowOffset;
@@ -93,15 +98,17 @@ public class ModernPreparedText implements Font.PreparedText {
         this.runs = runs;
         this.hasEffect = hasEffect;
         this.totalAdvance = totalAdvance;
-        this.glyphs = glyphs;
-        this.positions = positions;
+        this.quads = quads;
         this.flags = flags;
         this.customRenderables = customRenderables;
+        this.effectPositions = null;
+        this.effectFlags = null;
+        this.animated = false;
     }
 
     ModernPreparedText(float x, float top, int color, boolean dropShadow,
                        int preferredMode, int bgColor, float xAdj, float yAdj,
-                       float density, BakedGlyph[] glyphs, TextLayout layout) {
+                       float density, BakedGlyph[] glyphs, float[] quads, TextLayout layout) {
 
         final float invDensity = 1.0f / density;
         float shadowOffset = 0;
@@ -135,7 +142,7 @@ public class ModernPreparedText implements Font.PreparedText {
 
         ArrayList<TextRun> textRuns = new ArrayList<>();
         ArrayList<TextRenderable> customRenderables = new ArrayList<>();
-        boolean glyphArrayIsCopied = false;
+        boolean quadArrayIsCopied = false;
 
         for (int i = 0, e = glyphs.length; i < e; i++) {
             var vglyph = glyphs[i];
@@ -169,14 +176,8 @@ public class ModernPreparedText implements Font.PreparedText {
 
                 continue;
             }
-            float rx;
-            float ry;
-            final float w;
-            final float h;
             final int mode;
             final AbstractTexture texture;
-            boolean fakeItalic = false;
-            int ascent = 0;
             boolean isBitmapFont = false;
             boolean isColorEmoji = false;
             if ((bits & CharacterStyle.OBFUSCATED_MASK) != 0) {
@@ -184,39 +185,25 @@ public class ModernPreparedText implements Font.PreparedText {
                 int fastIndex = TextLayout.RANDOM.nextInt(chars.glyphs.size());
                 glyph = chars.glyphs.get(fastIndex);
                 // Determine the random glyph to be drawn in next frame
-                if (!glyphArrayIsCopied) {
-                    glyphArrayIsCopied = true;
-                    glyphs = glyphs.clone();
+                if (!quadArrayIsCopied) {
+                    quadArrayIsCopied = true;
+                    quads = quads.clone();
                 }
-                glyphs[i] = glyph;
+                TextLayout.computeGlyphQuad(quads, i * TextLayout.QUAD_STRIDE, glyph, bits,
+                        layout.getFont(i) instanceof BitmapFont,
+                        positions[i << 1], positions[i << 1 | 1], invDensity);
             }
             if ((bits & CharacterStyle.ANY_BITMAP_REPLACEMENT) != 0) {
-                final float scaleFactor;
                 if (layout.getFont(i) instanceof BitmapFont bitmapFont) {
                     texture = GlyphManager.getInstance().getCurrentTexture(bitmapFont);
-                    ascent = -glyph.y / TextLayoutEngine.BITMAP_SCALE;
-                    scaleFactor = 1f / TextLayoutEngine.BITMAP_SCALE;
                     isBitmapFont = true;
                 } else {
                     texture = GlyphManager.getInstance().getEmojiTexture();
-                    ascent = TextLayout.STANDARD_BASELINE_OFFSET;
-                    scaleFactor = TextLayoutProcessor.sBaseFontSize / GlyphManager.EMOJI_BASE;
                     isColorEmoji = true;
                 }
-                fakeItalic = (bits & CharacterStyle.ITALIC_MASK) != 0;
-                rx = x + positions[i << 1] + glyph.x * scaleFactor;
-                ry = baseline + positions[i << 1 | 1] + glyph.y * scaleFactor;
-
-                w = glyph.width * scaleFactor;
-                h = glyph.height * scaleFactor;
                 mode = TextRenderType.MODE_NORMAL; // for color emoji
             } else {
                 mode = preferredMode;
-                rx = x + positions[i << 1] + glyph.x * invDensity;
-                ry = baseline + positions[i << 1 | 1] + glyph.y * invDensity;
-
-                w = glyph.width * invDensity;
-                h = glyph.height * invDensity;
                 if (fontTexture == null) {
                     fontTexture = GlyphManager.getInstance().getFontTexture();
                 }
@@ -238,14 +225,11 @@ public class ModernPreparedText implements Font.PreparedText {
                         i, isColorEmoji,
                         preferredMode == TextRenderType.MODE_NORMAL));
             }
-            float upSkew = 0;
-            float downSkew = 0;
-            if (fakeItalic) {
-                upSkew = 0.25f * ascent;
-                downSkew = 0.25f * (ascent - h);
-            }
+            final int q = i * TextLayout.QUAD_STRIDE;
+            final float rx = x + quads[q];
+            final float ry = baseline + quads[q + 1];
             bounds.joinNoCheck(
-                    rx + downSkew, ry, rx + w + upSkew, ry + h
+                    rx + quads[q + 5], ry, rx + quads[q + 2] + quads[q + 4], ry + quads[q + 3]
             );
         }
         if (!textRuns.isEmpty()) {
@@ -279,10 +263,12 @@ public class ModernPreparedText implements Font.PreparedText {
         this.runs = textRuns;
         this.hasEffect = layout.hasEffect();
         this.totalAdvance = layout.getTotalAdvance();
-        this.glyphs = glyphs;
-        this.positions = positions;
+        this.quads = quads;
         this.flags = flags;
         this.customRenderables = customRenderables;
+        this.effectPositions = layout.getEffectPositions();
+        this.effectFlags = layout.getEffectFlags();
+        this.animated = quadArrayIsCopied;
     }
 
     // this is not used directly by ModernUI-MC, but for debugging and compatibility reasons
@@ -300,9 +286,27 @@ public class ModernPreparedText implements Font.PreparedText {
         return bounds;
     }
 
-    @SuppressWarnings("ForLoopReplaceableByForEach")
+    /**
+     * @return true if the text has obfuscated glyphs, which must be prepared every frame
+     */
+    public boolean isAnimated() {
+        return animated;
+    }
+
+    /**
+     * Submit the glyph runs and effects to the current layer of the GUI render state.
+     */
     public void submitRuns(GuiRenderState renderState, Matrix3x2fc pose,
                            @Nullable ScreenRectangle scissor) {
+        submitRuns(renderState::addGlyphToCurrentLayer, pose, scissor);
+    }
+
+    /**
+     * Emit the render states of the glyph runs and effects to the given consumer.
+     */
+    @SuppressWarnings("ForLoopReplaceableByForEach")
+    public void submitRuns(Consumer<GuiElementRenderState> out, Matrix3x2fc pose,
+                           @Nullable ScreenRectangle scissor) {
         float x = this.x;
         float top = this.top;
         if (xAdj != 0 || yAdj != 0) {
@@ -315,7 +319,7 @@ public class ModernPreparedText implements Font.PreparedText {
         }
         if ((bgColor & 0xFF000000) != 0) {
             // this is only used by CartographyTableScreen, emit as normal fills
-            renderState.addGlyphToCurrentLayer(
+            out.accept(
                     new GradientRectangleRenderState(
                             RenderPipelines.GUI,
                             TextureSetup.noTexture(),
@@ -328,30 +332,30 @@ public class ModernPreparedText implements Font.PreparedText {
             );
         }
         for (int i = 0; i < customRenderables.size(); i++) {
-            renderState.addGlyphToCurrentLayer(
+            out.accept(
                     new GlyphRenderState(pose, customRenderables.get(i), scissor)
             );
         }
         // For-index is 2x faster than enhanced-for
         for (int i = 0; i < runs.size(); i++) {
             var run = runs.get(i);
-            renderState.addGlyphToCurrentLayer(
+            out.accept(
                     new TextRunRenderState(pose, run.pipeline,
                             TextureSetup.singleTextureWithLightmap(run.textureView, run.sampler),
                             scissor,
                             x, top, color, dropShadow,
-                            glyphs, positions, flags,
+                            quads, flags,
                             run.glyphStart, run.glyphEnd,
                             run.isColorEmoji, run.isDirectMask,
                             density, shadowOffset)
             );
         }
         if (hasEffect) {
-            renderState.addGlyphToCurrentLayer(
+            out.accept(
                     new TextEffectRenderState(pose,
                             scissor,
                             x, top, color, dropShadow,
-                            positions, flags,
+                            effectPositions, effectFlags,
                             totalAdvance, shadowOffset)
             );
         }
@@ -20,6 +20,7 @@ package icyllis.modernui.mc.text;
 
 import icyllis.modernui.graphics.text.LineBreaker;
 import icyllis.modernui.mc.MuiModApi;
+import it.unimi.dsi.fastutil.booleans.BooleanArrayList;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntList;
 import net.minecraft.ChatFormatting;
@@ -31,8 +32,14 @@ import org.apache.commons.lang3.mutable.MutableObject;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.BiConsumer;
+import java.util.function.ObjIntConsumer;
 
 /**
  * Provides text measurement, truncation, Unicode grapheme cluster breaking,
@@ -211,31 +218,82 @@ public final class ModernStringSplitter extends StringSplitter {
      * @return break index (without formatting codes)
      */
     public static int breakText(@Nonnull TextLayout layout, boolean forwards, float width) {
+        final float[] sums = layout.getAdvanceSums();
         final int limit = layout.getCharCount();
         if (forwards) {
             // TruncateAt.END
-            int i = 0;
-            while (i < limit) {
-                width -= layout.getAdvances()[i];
-                if (width < 0.0f) break;
-                i++;
-            }
-            return i;
+            return searchForwards(sums, limit, width);
         } else {
             // TruncateAt.START
-            int i = limit - 1;
-            while (i >= 0) {
-                width -= layout.getAdvances()[i];
-                if (width < 0.0f) break;
-                i--;
+            // find the last index that the width from it to the end exceeds the width
+            final float threshold = sums[limit] - width;
+            int low = 0;
+            int high = limit - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (sums[mid] < threshold) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
             }
-            while (i < limit - 1 && layout.getAdvances()[i + 1] == 0.0f) {
+            int i = high;
+            final float[] advances = layout.getAdvances();
+            while (i < limit - 1 && advances[i + 1] == 0.0f) {
                 i++;
             }
             return i + 1;
         }
     }
 
+    /**
+     * Batch version of {@link #breakText(TextLayout, boolean, float)} with forwards=true,
+     * for callers that need many positions of the same text at once.
+     *
+     * @param layout  the measured text to break
+     * @param widths  the max widths in GUI scaled pixels
+     * @param results the break indices (without formatting codes), same indexing with widths
+     */
+    public static void breakText(@Nonnull TextLayout layout, @Nonnull float[] widths, @Nonnull int[] results) {
+        final float[] sums = layout.getAdvanceSums();
+        final int limit = layout.getCharCount();
+        for (int i = 0; i < widths.length; i++) {
+            results[i] = searchForwards(sums, limit, widths[i]);
+        }
+    }
+
+    /**
+     * Returns the accumulated width of the text before each given index, the inverse of
+     * {@link #breakText(TextLayout, float[], int[])}.
+     *
+     * @param layout  the measured text
+     * @param indices the indices (without formatting codes), clamped to the text length
+     * @param results the widths in GUI scaled pixels, same indexing with indices
+     */
+    public static void measureText(@Nonnull TextLayout layout, @Nonnull int[] indices, @Nonnull float[] results) {
+        final float[] sums = layout.getAdvanceSums();
+        final int limit = layout.getCharCount();
+        for (int i = 0; i < indices.length; i++) {
+            results[i] = sums[Math.max(0, Math.min(indices[i], limit))];
+        }
+    }
+
+    // returns the number of leading chars whose accumulated width not exceeds the width
+    private static int searchForwards(@Nonnull float[] sums, int limit, float width) {
+        int low = 1;
+        int high = limit;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (sums[mid] > width) {
+                high = mid - 1;
+            } else {
+                low = mid + 1;
+            }
+        }
+        // low is the first index whose sum exceeds the width, or limit + 1
+        return low - 1;
+    }
+
     /**
      * Measure the text and perform Unicode GCB (grapheme cluster break).
      * Returns the maximum index that the accumulated width not exceeds the width.
@@ -478,6 +536,56 @@ public final class ModernStringSplitter extends StringSplitter {
         computeLineBreaks(text, (float) width, style, consumer);
     }
 
+    /**
+     * Wrap a whole document (e.g. pages of a written book, a quest log or long lore),
+     * paragraphs are shaped and wrapped in parallel on the common fork-join pool, so
+     * the render thread is not blocked. If layout is not allowed off the render thread,
+     * see {@link TextLayoutEngine#sAllowAsyncLayout}, paragraphs are wrapped on the
+     * calling thread and the returned future is already completed.
+     *
+     * @param paragraphs the paragraphs to wrap, each one is wrapped independently
+     * @param width      the width limit of the line
+     * @param base       the base style
+     * @param listener   optional, accepts the index of a paragraph and its lines as soon as
+     *                   the paragraph is wrapped, may be called concurrently from worker threads
+     * @return the wrapped lines of each paragraph, same indexing with paragraphs
+     */
+    @Nonnull
+    public CompletableFuture<List<List<FormattedText>>> splitLinesAsync(
+            @Nonnull List<? extends FormattedText> paragraphs, float width, @Nonnull Style base,
+            @Nullable ObjIntConsumer<List<FormattedText>> listener) {
+        final int count = paragraphs.size();
+        @SuppressWarnings("unchecked") final List<FormattedText>[] results = new List[count];
+        if (!TextLayoutEngine.sAllowAsyncLayout) {
+            for (int i = 0; i < count; i++) {
+                results[i] = splitParagraph(paragraphs.get(i), width, base, i, listener);
+            }
+            return CompletableFuture.completedFuture(Arrays.asList(results));
+        }
+        final CompletableFuture<?>[] futures = new CompletableFuture[count];
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            final FormattedText paragraph = paragraphs.get(i);
+            futures[i] = CompletableFuture.runAsync(
+                    () -> results[index] = splitParagraph(paragraph, width, base, index, listener),
+                    ForkJoinPool.commonPool());
+        }
+        return CompletableFuture.allOf(futures)
+                .thenApply(__ -> Arrays.asList(results));
+    }
+
+    @Nonnull
+    private List<FormattedText> splitParagraph(@Nonnull FormattedText paragraph, float width,
+                                               @Nonnull Style base, int index,
+                                               @Nullable ObjIntConsumer<List<FormattedText>> listener) {
+        final List<FormattedText> lines = new ArrayList<>();
+        computeLineBreaks(paragraph, width, base, (line, nonNewPara) -> lines.add(line));
+        if (listener != null) {
+            listener.accept(lines, index);
+        }
+        return lines;
+    }
+
     private static final int NOWHERE = 0xFFFFFFFF;
 
     /**
@@ -515,36 +623,12 @@ public final class ModernStringSplitter extends StringSplitter {
             }
         }
 
-        // ignore styles generated from formatting codes
-        final LineProcessor lineBreaker = new LineProcessor(width);
-        final int end = layout.getCharCount();
-
-        int nextBoundaryIndex = 0;
-        int paraEnd;
-        for (int paraStart = 0; paraStart < end; paraStart = paraEnd) {
-            paraEnd = -1;
-            for (int i = paraStart; i < end; i++)
-                if (buf[i] == '\n') {
-                    paraEnd = i;
-                    break;
-                }
-            if (paraEnd < 0) {
-                // No LINE_FEED(U+000A) character found. Use end of the text as the paragraph
-                // end.
-                paraEnd = end;
-            } else {
-                paraEnd++;  // Includes LINE_FEED(U+000A) to the prev paragraph.
-            }
-
-            nextBoundaryIndex = lineBreaker.process(layout, buf, paraStart, paraEnd, nextBoundaryIndex);
-        }
-
-        final IntList result = lineBreaker.mBreakPoints;
+        final int[] result = getLineBreaks(layout, width);
 
         int mStripIndex = 0;
 
         int mBreakOffsetIndex = 0;
-        int mBreakPointOffset = result.getInt(mBreakOffsetIndex++);
+        int mBreakPointOffset = result[mBreakOffsetIndex++];
 
         Style currStyle = base;
         Style lastStyle = base;
@@ -567,10 +651,10 @@ public final class ModernStringSplitter extends StringSplitter {
                 consumer.accept(lastStyle, lastSubPos, i + 1);
                 lastSubPos = i + 1;
                 lastStyle = currStyle;
-                if (mBreakOffsetIndex >= result.size()) {
+                if (mBreakOffsetIndex >= result.length) {
                     break;
                 }
-                mBreakPointOffset = result.getInt(mBreakOffsetIndex++);
+                mBreakPointOffset = result[mBreakOffsetIndex++];
             }
         }
         String remainder = text.substring(lastSubPos);
@@ -617,38 +701,33 @@ public final class ModernStringSplitter extends StringSplitter {
             }
         }
 
-        // ignore styles generated from formatting codes
-        final LineProcessor lineBreaker = new LineProcessor(width);
-        final int end = layout.getCharCount();
-
-        int nextBoundaryIndex = 0;
-        int paraEnd;
-        for (int paraStart = 0; paraStart < end; paraStart = paraEnd) {
-            paraEnd = -1;
-            for (int i = paraStart; i < end; i++)
-                if (buf[i] == '\n') {
-                    paraEnd = i;
-                    break;
-                }
-            if (paraEnd < 0) {
-                // No LINE_FEED(U+000A) character found. Use end of the text as the paragraph
-                // end.
-                paraEnd = end;
-            } else {
-                paraEnd++;  // Includes LINE_FEED(U+000A) to the prev paragraph.
+        // the same text is often split again (tooltips, screens rebuilt on resize),
+        // then only emit the cached lines
+        final var cached = layout.getSplitLines(text, base, width);
+        if (cached != null) {
+            final var lines = cached.lines();
+            final var nonNewParas = cached.nonNewParas();
+            for (int i = 0; i < lines.length; i++) {
+                consumer.accept(lines[i], nonNewParas[i]);
             }
-
-            nextBoundaryIndex = lineBreaker.process(layout, buf, paraStart, paraEnd, nextBoundaryIndex);
+            return;
         }
+        final var lines = new ArrayList<FormattedText>();
+        final var nonNewParas = new BooleanArrayList();
+        final BiConsumer<FormattedText, Boolean> sink = (line, nonNewPara) -> {
+            lines.add(line);
+            nonNewParas.add((boolean) nonNewPara);
+            consumer.accept(line, nonNewPara);
+        };
 
-        final IntList result = lineBreaker.mBreakPoints;
+        final int[] result = getLineBreaks(layout, width);
 
         class LineBreakVisitor implements FormattedText.StyledContentConsumer<Unit> {
             private ComponentCollector mCollector = new ComponentCollector();
             private int mStripIndex = 0;
 
             private int mBreakOffsetIndex = 0;
-            private int mBreakPointOffset = result.getInt(mBreakOffsetIndex++);
+            private int mBreakPointOffset = result[mBreakOffsetIndex++];
 
             private boolean mNonNewPara = false;
 
@@ -685,13 +764,13 @@ public final class ModernStringSplitter extends StringSplitter {
                                 mCollector.append(FormattedText.of(substring.substring(0, visibleEnd), lastStyle));
                             }
                         }
-                        consumer.accept(mCollector.getResultOrEmpty(), mNonNewPara);
+                        sink.accept(mCollector.getResultOrEmpty(), mNonNewPara);
                         lastSubPos = i + 1;
                         lastStyle = currStyle;
                         mCollector = new ComponentCollector();
-                        mBreakPointOffset = mBreakOffsetIndex >= result.size()
+                        mBreakPointOffset = mBreakOffsetIndex >= result.length
                                 ? Integer.MAX_VALUE
-                                : result.getInt(mBreakOffsetIndex++);
+                                : result[mBreakOffsetIndex++];
                         mNonNewPara = c != '\n';
                     }
                 }
@@ -708,10 +787,58 @@ public final class ModernStringSplitter extends StringSplitter {
                 ? visitor.mCollector.getResult()
                 : visitor.mCollector.getResultOrEmpty();
         if (remainder != null) {
-            consumer.accept(remainder, visitor.mNonNewPara);
+            sink.accept(remainder, visitor.mNonNewPara);
         } else if (!visitor.mNonNewPara) {
-            consumer.accept(FormattedText.EMPTY, Boolean.FALSE);
+            sink.accept(FormattedText.EMPTY, Boolean.FALSE);
+        }
+        layout.putSplitLines(new TextLayout.SplitLines(text, base, width,
+                lines.toArray(new FormattedText[0]), nonNewParas.toBooleanArray()));
+    }
+
+    /**
+     * Compute the strip indices (exclusive) that lines end at, the result is cached
+     * on the layout by width, so splitting the same text repeatedly (tooltips, chat,
+     * books) only emits lines.
+     *
+     * @param layout the layout with advances and line boundaries
+     * @param width  the width limit of the line
+     * @return the line break result, do not modify
+     */
+    @Nonnull
+    private static int[] getLineBreaks(@Nonnull TextLayout layout, float width) {
+        int[] result = layout.getLineBreaks(width);
+        if (result != null) {
+            return result;
+        }
+        final char[] buf = layout.getTextBuf();
+
+        // ignore styles generated from formatting codes
+        final LineProcessor lineBreaker = new LineProcessor(width);
+        final int end = layout.getCharCount();
+
+        int nextBoundaryIndex = 0;
+        int paraEnd;
+        for (int paraStart = 0; paraStart < end; paraStart = paraEnd) {
+            paraEnd = -1;
+            for (int i = paraStart; i < end; i++)
+                if (buf[i] == '\n') {
+                    paraEnd = i;
+                    break;
+                }
+            if (paraEnd < 0) {
+                // No LINE_FEED(U+000A) character found. Use end of the text as the paragraph
+                // end.
+                paraEnd = end;
+            } else {
+                paraEnd++;  // Includes LINE_FEED(U+000A) to the prev paragraph.
+            }
+
+            nextBoundaryIndex = lineBreaker.process(layout, buf, paraStart, paraEnd, nextBoundaryIndex);
         }
+
+        result = lineBreaker.mBreakPoints.toIntArray();
+        layout.putLineBreaks(width, result);
+        return result;
     }
 
     public static class LineProcessor {
@@ -59,6 +59,22 @@ public final class ModernTextRenderer {
     public static volatile boolean sComputeDeviceFontSize = true;
     public static volatile boolean sAllowSDFTextIn2D = true;
     public static volatile boolean sTweakExperienceText = true;
+    public static volatile boolean sCachedChatLayer = false;
+    public static volatile boolean sRetainWorldTextMesh = true;
+    public static volatile int sWorldTextSimplifyHeight = 8;
+    public static volatile int sWorldTextCullHeight = 0;
+
+    /**
+     * Level of detail of text in 3D world, see {@link #chooseWorldLevel(Matrix4fc)}.
+     */
+    public static final int WORLD_LOD_FULL = 0;
+    public static final int WORLD_LOD_SIMPLIFIED = 1;
+    public static final int WORLD_LOD_CULLED = 2;
+
+    /**
+     * Screen pixels per world unit at distance 1, updated when world rendering begins.
+     */
+    private static float sWorldProjectionScale = 1;
     //private boolean mGlobalRenderer = false;
 
     //private final TextLayoutEngine mFontEngine = TextLayoutEngine.getInstance();
@@ -141,6 +157,13 @@ public final class ModernTextRenderer {
 
         int mode = chooseMode(matrix, displayMode);
         boolean polygonOffset = displayMode == Font.DisplayMode.POLYGON_OFFSET;
+        int level = WORLD_LOD_FULL;
+        if (TextLayoutEngine.sCurrentInWorldRendering) {
+            level = chooseWorldLevel(matrix);
+            if (level == WORLD_LOD_CULLED) {
+                return layout.getTotalAdvance();
+            }
+        }
 
         /*if (layout.hasColorEmoji() && source instanceof MultiBufferSource.BufferSource) {
             // performance impact
@@ -194,16 +217,61 @@ public final class ModernTextRenderer {
                 mode = sAllowSDFTextIn2D ? TextRenderType.MODE_SDF_FILL : TextRenderType.MODE_NORMAL;
             }
         }*/
-        if (dropShadow && sAllowShadow) {
+        final boolean lowDensity = level == WORLD_LOD_SIMPLIFIED;
+        if (dropShadow && sAllowShadow && !lowDensity) {
             layout.drawText(matrix, source, x, y, r >> 2, g >> 2, b >> 2, a, true,
-                    mode, polygonOffset, uniformScale, colorBackground, packedLight);
+                    mode, polygonOffset, uniformScale, colorBackground, packedLight, false);
             var newMatrix = new Matrix4f(matrix);
             newMatrix.translate(SHADOW_OFFSET);
             matrix = newMatrix;
         }
 
         return layout.drawText(matrix, source, x, y, r, g, b, a, false,
-                mode, polygonOffset, uniformScale, colorBackground, packedLight);
+                mode, polygonOffset, uniformScale, colorBackground, packedLight, lowDensity);
+    }
+
+    /**
+     * Update the projection used by {@link #chooseWorldLevel(Matrix4fc)}, called when
+     * the field of view of the level projection is computed for the frame.
+     *
+     * @param fov the final vertical field of view in degrees, including the modifiers
+     *            like spyglass, sprinting and effects
+     */
+    public static void updateWorldProjection(float fov) {
+        var minecraft = Minecraft.getInstance();
+        double rad = Math.toRadians(fov);
+        sWorldProjectionScale = (float) (minecraft.getWindow().getHeight() / (2.0 * Math.tan(rad * 0.5)));
+    }
+
+    /**
+     * Choose the level of detail for text in 3D world, based on the estimated on-screen
+     * height of a text line. Distant text is drawn with the base glyph strike and without
+     * shadow or outline, and text that is too small to be legible is not drawn at all.
+     *
+     * @param ctm the camera-relative transform of the text
+     * @return one of WORLD_LOD_* constants
+     */
+    public static int chooseWorldLevel(@Nonnull Matrix4fc ctm) {
+        final int simplifyHeight = sWorldTextSimplifyHeight;
+        final int cullHeight = sWorldTextCullHeight;
+        if (simplifyHeight <= 0 && cullHeight <= 0) {
+            return WORLD_LOD_FULL;
+        }
+        // the translation is the text origin relative to the camera
+        float distSq = ctm.m30() * ctm.m30() + ctm.m31() * ctm.m31() + ctm.m32() * ctm.m32();
+        if (distSq < 1.0e-4f) {
+            return WORLD_LOD_FULL;
+        }
+        // vanilla line height is 9, scaled by the y-axis of the transform
+        float scaleSq = ctm.m10() * ctm.m10() + ctm.m11() * ctm.m11() + ctm.m12() * ctm.m12();
+        float height = 9.0f * (float) Math.sqrt(scaleSq / distSq) * sWorldProjectionScale;
+        if (height < cullHeight) {
+            return WORLD_LOD_CULLED;
+        }
+        if (height < simplifyHeight) {
+            return WORLD_LOD_SIMPLIFIED;
+        }
+        return WORLD_LOD_FULL;
     }
 
     public int chooseMode(Matrix4fc ctm, Font.DisplayMode displayMode) {
@@ -287,12 +355,21 @@ public final class ModernTextRenderer {
             // performance impact
             ((MultiBufferSource.BufferSource) source).endBatch(Sheets.signSheet());
         }*/
+        int level = WORLD_LOD_FULL;
+        if (TextLayoutEngine.sCurrentInWorldRendering) {
+            level = chooseWorldLevel(matrix);
+            if (level == WORLD_LOD_CULLED) {
+                return;
+            }
+        }
 
         layout.drawText(matrix, source, x, y, r, g, b, a, false,
-                TextRenderType.MODE_SDF_FILL, false, 1, 0, packedLight);
+                TextRenderType.MODE_SDF_FILL, false, 1, 0, packedLight,
+                level == WORLD_LOD_SIMPLIFIED);
 
-        // disable outline if either text color is BLACK or SDF shader is unavailable
-        if (isBlack ||
+        // disable outline if either text color is BLACK or SDF shader is unavailable,
+        // or the text is distant
+        if (isBlack || level != WORLD_LOD_FULL ||
                 (TextLayoutEngine.sCurrentInWorldRendering && !TextLayoutEngine.sUseTextShadersInWorld)) {
             return;
         }
@@ -109,6 +109,10 @@ public class StandardFontSet extends FontSet {
                 continue;
             }
             Font font = family.getClosestMatch(FontPaint.NORMAL);
+            if (font instanceof TrueTypeFont trueTypeFont) {
+                // parsed by hasGlyph()
+                font = trueTypeFont.getOutlineFont();
+            }
             // we MUST check BitmapFont first,
             // because codePoint may be an invalid Unicode code point
             // but vanilla doesn't validate that
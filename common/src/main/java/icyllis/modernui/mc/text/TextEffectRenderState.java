@@ -31,11 +31,15 @@ import org.joml.Matrix3x2fc;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+/**
+ * Underline and strikethrough of a text, contiguous glyphs with identical effect
+ * flags and color have been merged into one range, see {@link TextLayout#getEffectPositions()}.
+ */
 public record TextEffectRenderState(
         Matrix3x2fc pose,
         @Nullable ScreenRectangle scissorArea,
         float x, float top, int color, boolean dropShadow,
-        float[] positions, int[] flags,
+        float[] effectPositions, int[] effectFlags,
         float totalAdvance, float shadowOffset
 ) implements GuiElementRenderState {
     @Override
@@ -57,19 +61,16 @@ public record TextEffectRenderState(
         int r;
         int g;
         int b;
-        var positions = this.positions;
-        var flags = this.flags;
+        var effectPositions = this.effectPositions;
+        var effectFlags = this.effectFlags;
         var pose = this.pose;
         float x = this.x;
         if (isShadow) {
             x += shadowOffset;
             baseline += shadowOffset;
         }
-        for (int i = 0, e = flags.length; i < e; i++) {
-            final int bits = flags[i];
-            if ((bits & CharacterStyle.EFFECT_MASK) == 0) {
-                continue;
-            }
+        for (int i = 0, e = effectFlags.length; i < e; i++) {
+            final int bits = effectFlags[i];
             if ((bits & CharacterStyle.IMPLICIT_COLOR_MASK) != 0) {
                 r = startR;
                 g = startG;
@@ -84,8 +85,8 @@ public record TextEffectRenderState(
                     b >>= 2;
                 }
             }
-            final float rx1 = x + positions[i << 1];
-            final float rx2 = x + ((i + 1 == e) ? totalAdvance : positions[(i + 1) << 1]);
+            final float rx1 = x + effectPositions[i << 1];
+            final float rx2 = x + effectPositions[i << 1 | 1];
             if ((bits & CharacterStyle.STRIKETHROUGH_MASK) != 0) {
                 TextRenderEffect.drawStrikethrough(pose, builder, rx1, rx2, baseline,
                         r, g, b, a);
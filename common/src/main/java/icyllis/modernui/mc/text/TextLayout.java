@@ -24,6 +24,7 @@ import icyllis.modernui.graphics.text.Font;
 import icyllis.modernui.util.SparseArray;
 import net.minecraft.client.gui.font.glyphs.BakedGlyph;
 import net.minecraft.client.renderer.MultiBufferSource;
+import net.minecraft.network.chat.FormattedText;
 import net.minecraft.network.chat.Style;
 import net.minecraft.resources.Identifier;
 import net.minecraft.util.ARGB;
@@ -65,6 +66,27 @@ public class TextLayout {
      */
     public static float sBaselineOffset = STANDARD_BASELINE_OFFSET;
 
+    /**
+     * Number of floats per glyph in a glyph quad array, see {@link #getGlyphQuads(BakedGlyph[], float)}.
+     * Layout: rx, ry, w, h, upSkew, downSkew, u1, v1, u2, v2.
+     */
+    public static final int QUAD_STRIDE = 10;
+
+    /**
+     * Max number of retained meshes per layout, see {@link #getWorldMesh}.
+     */
+    private static final int MAX_WORLD_MESHES = 4;
+
+    /**
+     * Max number of line break results per layout, see {@link #getLineBreaks(float)}.
+     */
+    private static final int MAX_LINE_BREAKS = 4;
+
+    /**
+     * Glyph flags that affect effect rendering, see {@link #getEffectFlags()}.
+     */
+    public static final int EFFECT_RUN_MASK = CharacterStyle.EFFECT_MASK | CharacterStyle.FULL_COLOR_MASK;
+
     /**
      * The copied text buffer without formatting codes in logical order.
      */
@@ -81,6 +103,35 @@ public class TextLayout {
     private transient BakedGlyph[] mBakedGlyphsForSDF;
     private transient SparseArray<BakedGlyph[]> mBakedGlyphsArray;
 
+    /**
+     * Layout-space glyph quads, same indexing with {@link #mBakedGlyphsForSDF} and
+     * {@link #mBakedGlyphsArray}, see {@link #getGlyphQuads(BakedGlyph[], float)}.
+     */
+    private transient float[] mGlyphQuads;
+    private transient float[] mGlyphQuadsForSDF;
+    private transient SparseArray<float[]> mGlyphQuadsArray;
+
+    /**
+     * The last few meshes for rendering with {@link MultiBufferSource}, reused in later frames
+     * while the parameters are unchanged, see {@link ModernTextRenderer#sRetainWorldTextMesh}.
+     * The same text is usually drawn more than once per frame (shadow, see-through pass).
+     */
+    private transient WorldTextMesh[] mWorldMeshes;
+    private transient int mNextWorldMesh;
+    private transient boolean mWorldMeshUnsupported;
+
+    /**
+     * The last few line break results of {@link ModernStringSplitter}, see
+     * {@link #getLineBreaks(float)}, and the last few lines split from formatted text,
+     * see {@link #getSplitLines(FormattedText, Style, float)}. Entries are immutable,
+     * so layouts can be shared with worker threads (e.g. bulk line wrapping) without
+     * locking, a racy update may only lose an entry.
+     */
+    private transient LineBreaks[] mLineBreaks;
+    private transient int mNextLineBreaks;
+    private transient SplitLines[] mSplitLines;
+    private transient int mNextSplitLines;
+
     /**
      * Position x1 y1 x2 y2... relative to the same point, for rendering glyphs.
      * These values are not offset to glyph additional baseline but aligned.
@@ -103,6 +154,13 @@ public class TextLayout {
      */
     private final float[] mAdvances;
 
+    /**
+     * Prefix sums of {@link #mAdvances}, computed on demand, see {@link #getAdvanceSums()}.
+     * Layouts are shared with worker threads (e.g. bulk line wrapping), volatile makes
+     * the array contents visible once the reference is.
+     */
+    private transient volatile float[] mAdvanceSums;
+
     /*
      * lower 24 bits - 0xRRGGBB color
      * higher 8 bits
@@ -147,6 +205,17 @@ public class TextLayout {
      * Precomputed value that indicates whether flags array contains any text effect flag.
      */
     private final boolean mHasEffect;
+
+    /**
+     * Underline and strikethrough ranges, contiguous glyphs with identical effect flags
+     * and color are merged into one range. Range x1 x2 relative to the same point as
+     * {@link #mPositions}, and flags that are masked with {@link #EFFECT_RUN_MASK}.
+     * Null if {@link #mHasEffect} is false.
+     */
+    @Nullable
+    private final float[] mEffectPositions;
+    @Nullable
+    private final int[] mEffectFlags;
     //private final boolean mHasFastDigit;
     private final boolean mHasColorEmoji;
     final int mCreatedResLevel;
@@ -170,6 +239,8 @@ public class TextLayout {
         mLineBoundaries = layout.mLineBoundaries;
         mTotalAdvance = layout.mTotalAdvance;
         mHasEffect = layout.mHasEffect;
+        mEffectPositions = layout.mEffectPositions;
+        mEffectFlags = layout.mEffectFlags;
         mHasColorEmoji = layout.mHasColorEmoji;
         mCreatedResLevel = layout.mCreatedResLevel;
         mComputedFlags = layout.mComputedFlags;
@@ -197,6 +268,39 @@ public class TextLayout {
         mHasColorEmoji = hasColorEmoji;
         mCreatedResLevel = createdResLevel;
         mComputedFlags = computedFlags;
+        if (hasEffect) {
+            int count = 0;
+            int prevBits = 0;
+            for (int bits : glyphFlags) {
+                bits &= EFFECT_RUN_MASK;
+                if ((bits & CharacterStyle.EFFECT_MASK) != 0 && bits != prevBits) {
+                    count++;
+                }
+                prevBits = bits;
+            }
+            float[] effectPositions = new float[count << 1];
+            int[] effectFlags = new int[count];
+            int run = -1;
+            prevBits = 0;
+            for (int i = 0, e = glyphFlags.length; i < e; i++) {
+                final int bits = glyphFlags[i] & EFFECT_RUN_MASK;
+                if ((bits & CharacterStyle.EFFECT_MASK) != 0) {
+                    if (bits != prevBits) {
+                        run++;
+                        effectPositions[run << 1] = positions[i << 1];
+                        effectFlags[run] = bits;
+                    }
+                    effectPositions[run << 1 | 1] = (i + 1 == e) ? totalAdvance : positions[(i + 1) << 1];
+                }
+                prevBits = bits;
+            }
+            assert run + 1 == count;
+            mEffectPositions = effectPositions;
+            mEffectFlags = effectFlags;
+        } else {
+            mEffectPositions = null;
+            mEffectFlags = null;
+        }
         assert mAdvances == null ||
                 mTextBuf.length == mAdvances.length;
         assert mGlyphs.length * 2 == mPositions.length;
@@ -295,6 +399,148 @@ public class TextLayout {
         return glyphs;
     }
 
+    /**
+     * Returns the layout-space quads of the given baked glyph set, computed only once per
+     * glyph set. Each glyph has {@link #QUAD_STRIDE} floats: the top-left corner relative to
+     * the origin and the baseline (without italic skew), the size, the italic skew of the top
+     * and bottom edges, and the texture coordinates. The values are scaled to Minecraft GUI
+     * coordinates. A NaN rx means there's nothing to draw for the glyph by the Modern Text
+     * Engine, including obfuscated glyphs, which are randomized per frame, see
+     * {@link #computeGlyphQuad(float[], int, ModernBakedGlyph, int, boolean, float, float, float)}.
+     *
+     * @param glyphs  the baked glyph set returned by {@link #getGlyphs(int)} or
+     *                {@link #getGlyphsUniformScale(float)}
+     * @param density the density used to bake the glyph set
+     * @return the glyph quads, do not modify
+     */
+    @Nonnull
+    private float[] getGlyphQuads(@Nonnull BakedGlyph[] glyphs, float density) {
+        if (glyphs == mBakedGlyphs) {
+            if (mGlyphQuads == null) {
+                mGlyphQuads = computeGlyphQuads(glyphs, density);
+            }
+            return mGlyphQuads;
+        } else if (glyphs == mBakedGlyphsForSDF) {
+            if (mGlyphQuadsForSDF == null) {
+                mGlyphQuadsForSDF = computeGlyphQuads(glyphs, density);
+            }
+            return mGlyphQuadsForSDF;
+        } else {
+            if (mGlyphQuadsArray == null) {
+                mGlyphQuadsArray = new SparseArray<>();
+            }
+            int fontSize = TextLayoutProcessor.computeFontSize(density);
+            float[] quads = mGlyphQuadsArray.get(fontSize);
+            if (quads == null) {
+                quads = computeGlyphQuads(glyphs, density);
+                mGlyphQuadsArray.put(fontSize, quads);
+            }
+            return quads;
+        }
+    }
+
+    @Nonnull
+    private float[] computeGlyphQuads(@Nonnull BakedGlyph[] glyphs, float density) {
+        final float invDensity = 1.0f / density;
+        final var positions = mPositions;
+        final var flags = mGlyphFlags;
+        final float[] quads = new float[glyphs.length * QUAD_STRIDE];
+        for (int i = 0, e = glyphs.length; i < e; i++) {
+            final int bits = flags[i];
+            if (!(glyphs[i] instanceof ModernBakedGlyph glyph) ||
+                    (bits & CharacterStyle.OBFUSCATED_MASK) != 0) {
+                quads[i * QUAD_STRIDE] = Float.NaN;
+                continue;
+            }
+            computeGlyphQuad(quads, i * QUAD_STRIDE, glyph, bits,
+                    getFont(i) instanceof BitmapFont,
+                    positions[i << 1], positions[i << 1 | 1], invDensity);
+        }
+        return quads;
+    }
+
+    /**
+     * Compute the layout-space quad of a single glyph.
+     *
+     * @param quads        the destination
+     * @param offset       the offset into quads
+     * @param glyph        the baked glyph, not a fast char set
+     * @param bits         the glyph flags
+     * @param isBitmapFont whether the glyph is from a bitmap font, ignored if not bitmap replacement
+     * @param posX         the glyph position x relative to the origin
+     * @param posY         the glyph position y relative to the baseline
+     * @param invDensity   the reciprocal of the density used to bake the glyph
+     */
+    static void computeGlyphQuad(@Nonnull float[] quads, int offset,
+                                 @Nonnull ModernBakedGlyph glyph, int bits, boolean isBitmapFont,
+                                 float posX, float posY, float invDensity) {
+        final float scaleFactor;
+        int ascent = 0;
+        boolean fakeItalic = false;
+        if ((bits & CharacterStyle.ANY_BITMAP_REPLACEMENT) != 0) {
+            if (isBitmapFont) {
+                ascent = -glyph.y / TextLayoutEngine.BITMAP_SCALE;
+                scaleFactor = 1f / TextLayoutEngine.BITMAP_SCALE;
+            } else {
+                ascent = STANDARD_BASELINE_OFFSET;
+                scaleFactor = TextLayoutProcessor.sBaseFontSize / GlyphManager.EMOJI_BASE;
+            }
+            fakeItalic = (bits & CharacterStyle.ITALIC_MASK) != 0;
+        } else {
+            scaleFactor = invDensity;
+        }
+        final float h = glyph.height * scaleFactor;
+        quads[offset] = posX + glyph.x * scaleFactor;
+        quads[offset + 1] = posY + glyph.y * scaleFactor;
+        quads[offset + 2] = glyph.width * scaleFactor;
+        quads[offset + 3] = h;
+        if (fakeItalic) {
+            quads[offset + 4] = 0.25f * ascent;
+            quads[offset + 5] = 0.25f * (ascent - h);
+        } else {
+            quads[offset + 4] = 0;
+            quads[offset + 5] = 0;
+        }
+        quads[offset + 6] = glyph.u1;
+        quads[offset + 7] = glyph.v1;
+        quads[offset + 8] = glyph.u2;
+        quads[offset + 9] = glyph.v2;
+    }
+
+    /**
+     * Returns a retained mesh matching the given parameters, creating a new one if there's
+     * no such mesh. Returns null if this layout has glyphs that must be drawn immediately.
+     */
+    @Nullable
+    private WorldTextMesh getWorldMesh(@Nonnull BakedGlyph[] glyphs, float density, int color,
+                                       boolean isShadow, int preferredMode,
+                                       boolean polygonOffset, float shadowOffset) {
+        if (mWorldMeshUnsupported) {
+            return null;
+        }
+        final float[] quads = getGlyphQuads(glyphs, density);
+        var meshes = mWorldMeshes;
+        if (meshes == null) {
+            mWorldMeshes = meshes = new WorldTextMesh[MAX_WORLD_MESHES];
+        }
+        for (var mesh : meshes) {
+            if (mesh != null && mesh.matches(quads, color, isShadow,
+                    preferredMode, polygonOffset, shadowOffset)) {
+                return mesh;
+            }
+        }
+        var mesh = WorldTextMesh.create(this, glyphs, quads, color, isShadow,
+                preferredMode, polygonOffset, shadowOffset);
+        if (mesh == null) {
+            mWorldMeshUnsupported = true;
+            mWorldMeshes = null;
+            return null;
+        }
+        meshes[mNextWorldMesh] = mesh;
+        mNextWorldMesh = (mNextWorldMesh + 1) % MAX_WORLD_MESHES;
+        return mesh;
+    }
+
     /**
      * Render this text in Minecraft render system.
      *
@@ -321,12 +567,32 @@ public class TextLayout {
                           final boolean isShadow, int preferredMode,
                           final boolean polygonOffset, final float uniformScale,
                           final int bgColor, final int packedLight) {
+        return drawText(matrix, source, x, top, r, g, b, a, isShadow, preferredMode,
+                polygonOffset, uniformScale, bgColor, packedLight, false);
+    }
+
+    /**
+     * Render this text in Minecraft render system.
+     *
+     * @param lowDensity use the base glyph strike instead of the one for SDF,
+     *                   for distant text in 3D world
+     * @see #drawText(Matrix4fc, MultiBufferSource, float, float, int, int, int, int, boolean, int,
+     * boolean, float, int, int)
+     */
+    public float drawText(@Nonnull final Matrix4fc matrix,
+                          @Nonnull final MultiBufferSource source,
+                          float x, float top,
+                          int r, int g, int b, final int a,
+                          final boolean isShadow, int preferredMode,
+                          final boolean polygonOffset, final float uniformScale,
+                          final int bgColor, final int packedLight,
+                          final boolean lowDensity) {
         final int startR = r;
         final int startG = g;
         final int startB = b;
         final float density;
         final BakedGlyph[] glyphs;
-        if (preferredMode == TextRenderType.MODE_SDF_FILL) {
+        if (preferredMode == TextRenderType.MODE_SDF_FILL && !lowDensity) {
             int resLevel = TextLayoutEngine.adjustPixelDensityForSDF(mCreatedResLevel);
             glyphs = getGlyphs(resLevel);
             density = resLevel;
@@ -379,155 +645,163 @@ public class TextLayout {
             renderable.render(matrix, buffer, packedLight, false);
         }
 
-        for (int i = 0, e = glyphs.length; i < e; i++) {
-            var vglyph = glyphs[i];
-            if (vglyph == null) {
-                continue;
-            }
-            final int bits = flags[i];
-            if (!(vglyph instanceof ModernBakedGlyph glyph)) {
-                // used in 3D world rendering, and it's atlas sprite or player skin
-                if (!isShadow) {
-                    int glyphColor;
-                    if ((bits & CharacterStyle.IMPLICIT_COLOR_MASK) == 0) {
-                        glyphColor = ARGB.color(a, bits);
+        final WorldTextMesh mesh = ModernTextRenderer.sRetainWorldTextMesh
+                ? getWorldMesh(glyphs, density, ARGB.color(a, startR, startG, startB),
+                isShadow, preferredMode, polygonOffset, shadowOffset)
+                : null;
+        if (mesh != null) {
+            mesh.draw(matrix, source, x, top, packedLight);
+        } else {
+            for (int i = 0, e = glyphs.length; i < e; i++) {
+                var vglyph = glyphs[i];
+                if (vglyph == null) {
+                    continue;
+                }
+                final int bits = flags[i];
+                if (!(vglyph instanceof ModernBakedGlyph glyph)) {
+                    // used in 3D world rendering, and it's atlas sprite or player skin
+                    if (!isShadow) {
+                        int glyphColor;
+                        if ((bits & CharacterStyle.IMPLICIT_COLOR_MASK) == 0) {
+                            glyphColor = ARGB.color(a, bits);
+                        } else {
+                            glyphColor = ARGB.color(a, startR, startG, startB);
+                        }
+                        // atlas sprite and player skin don't use style
+                        var renderable = vglyph.createGlyph(
+                                x + positions[i << 1],
+                                top + positions[i << 1 | 1],
+                                glyphColor, 0,
+                                Style.EMPTY,
+                                0, 0
+                        );
+                        if (renderable != null) {
+                            var buffer = source.getBuffer(renderable.renderType(compatDisplayMode));
+                            renderable.render(matrix, buffer, packedLight, false);
+                        }
+                    }
+                    continue;
+                }
+                float rx;
+                float ry;
+                final float w;
+                final float h;
+                final int mode;
+                final Identifier texture;
+                boolean fakeItalic = false;
+                int ascent = 0;
+                net.minecraft.client.gui.Font.DisplayMode vanillaDisplayMode = null;
+                boolean isBitmapFont = false;
+                boolean isColorEmoji = false;
+                if ((bits & CharacterStyle.NO_SHADOW_MASK) != 0 && isShadow) {
+                    continue;
+                }
+                if ((bits & CharacterStyle.OBFUSCATED_MASK) != 0) {
+                    var chars = (GlyphManager.FastCharSet) glyph;
+                    int fastIndex = RANDOM.nextInt(chars.glyphs.size());
+                    glyph = chars.glyphs.get(fastIndex);
+                }
+                if ((bits & CharacterStyle.ANY_BITMAP_REPLACEMENT) != 0) {
+                    final float scaleFactor;
+                    if (getFont(i) instanceof BitmapFont bitmapFont) {
+                        texture = bitmapFont.getCurrentTextureName();
+                        ascent = bitmapFont.getAscent();
+                        scaleFactor = 1f / TextLayoutEngine.BITMAP_SCALE;
+                        isBitmapFont = true;
                     } else {
-                        glyphColor = ARGB.color(a, startR, startG, startB);
+                        if (isShadow) {
+                            continue;
+                        }
+                        texture = GlyphManager.EMOJI_SHEET;
+                        ascent = TextLayout.STANDARD_BASELINE_OFFSET;
+                        scaleFactor = TextLayoutProcessor.sBaseFontSize / GlyphManager.EMOJI_BASE;
+                        isColorEmoji = true;
+                    }
+                    fakeItalic = (bits & CharacterStyle.ITALIC_MASK) != 0;
+                    rx = x + positions[i << 1] + glyph.x * scaleFactor;
+                    ry = baseline + positions[i << 1 | 1] + glyph.y * scaleFactor;
+                    if (isShadow) {
+                        // bitmap font shadow offset is always 1 pixel
+                        rx += 1.0f - shadowOffset;
+                        ry += 1.0f - shadowOffset;
+                    }
+
+                    w = glyph.width * scaleFactor;
+                    h = glyph.height * scaleFactor;
+                    mode = seeThrough ? preferredMode : TextRenderType.MODE_NORMAL; // for color emoji
+                    if (isBitmapFont) {
+                        vanillaDisplayMode = seeThrough
+                                ? net.minecraft.client.gui.Font.DisplayMode.SEE_THROUGH
+                                : net.minecraft.client.gui.Font.DisplayMode.NORMAL;
                     }
-                    // atlas sprite and player skin don't use style
-                    var renderable = vglyph.createGlyph(
-                            x + positions[i << 1],
-                            top + positions[i << 1 | 1],
-                            glyphColor, 0,
-                            Style.EMPTY,
-                            0, 0
-                    );
-                    if (renderable != null) {
-                        var buffer = source.getBuffer(renderable.renderType(compatDisplayMode));
-                        renderable.render(matrix, buffer, packedLight, false);
+                    if (polygonOffset) {
+                        vanillaDisplayMode = net.minecraft.client.gui.Font.DisplayMode.POLYGON_OFFSET;
                     }
+                } else {
+                    mode = preferredMode;
+                    rx = x + positions[i << 1] + glyph.x * invDensity;
+                    ry = baseline + positions[i << 1 | 1] + glyph.y * invDensity;
+
+                    w = glyph.width * invDensity;
+                    h = glyph.height * invDensity;
+                    texture = GlyphManager.FONT_SHEET;
                 }
-                continue;
-            }
-            float rx;
-            float ry;
-            final float w;
-            final float h;
-            final int mode;
-            final Identifier texture;
-            boolean fakeItalic = false;
-            int ascent = 0;
-            net.minecraft.client.gui.Font.DisplayMode vanillaDisplayMode = null;
-            boolean isBitmapFont = false;
-            boolean isColorEmoji = false;
-            if ((bits & CharacterStyle.NO_SHADOW_MASK) != 0 && isShadow) {
-                continue;
-            }
-            if ((bits & CharacterStyle.OBFUSCATED_MASK) != 0) {
-                var chars = (GlyphManager.FastCharSet) glyph;
-                int fastIndex = RANDOM.nextInt(chars.glyphs.size());
-                glyph = chars.glyphs.get(fastIndex);
-            }
-            if ((bits & CharacterStyle.ANY_BITMAP_REPLACEMENT) != 0) {
-                final float scaleFactor;
-                if (getFont(i) instanceof BitmapFont bitmapFont) {
-                    texture = bitmapFont.getCurrentTextureName();
-                    ascent = bitmapFont.getAscent();
-                    scaleFactor = 1f / TextLayoutEngine.BITMAP_SCALE;
-                    isBitmapFont = true;
+                /*if (preferredMode == TextRenderType.MODE_NORMAL) {
+                    // align to screen pixel center in 2D
+                    rx = Math.round(rx * density) * invDensity;
+                    ry = Math.round(ry * density) * invDensity;
+                }*/
+                if (isColorEmoji) {
+                    r = 0xff;
+                    g = 0xff;
+                    b = 0xff;
+                } else if ((bits & CharacterStyle.IMPLICIT_COLOR_MASK) != 0) {
+                    r = startR;
+                    g = startG;
+                    b = startB;
                 } else {
+                    r = bits >> 16 & 0xff;
+                    g = bits >> 8 & 0xff;
+                    b = bits & 0xff;
                     if (isShadow) {
-                        continue;
+                        r >>= 2;
+                        g >>= 2;
+                        b >>= 2;
                     }
-                    texture = GlyphManager.EMOJI_SHEET;
-                    ascent = TextLayout.STANDARD_BASELINE_OFFSET;
-                    scaleFactor = TextLayoutProcessor.sBaseFontSize / GlyphManager.EMOJI_BASE;
-                    isColorEmoji = true;
-                }
-                fakeItalic = (bits & CharacterStyle.ITALIC_MASK) != 0;
-                rx = x + positions[i << 1] + glyph.x * scaleFactor;
-                ry = baseline + positions[i << 1 | 1] + glyph.y * scaleFactor;
-                if (isShadow) {
-                    // bitmap font shadow offset is always 1 pixel
-                    rx += 1.0f - shadowOffset;
-                    ry += 1.0f - shadowOffset;
-                }
-
-                w = glyph.width * scaleFactor;
-                h = glyph.height * scaleFactor;
-                mode = seeThrough ? preferredMode : TextRenderType.MODE_NORMAL; // for color emoji
-                if (isBitmapFont) {
-                    vanillaDisplayMode = seeThrough
-                            ? net.minecraft.client.gui.Font.DisplayMode.SEE_THROUGH
-                            : net.minecraft.client.gui.Font.DisplayMode.NORMAL;
                 }
-                if (polygonOffset) {
-                    vanillaDisplayMode = net.minecraft.client.gui.Font.DisplayMode.POLYGON_OFFSET;
+                if (builder == null || prevTexture != texture || prevMode != mode ||
+                        prevVanillaDisplayMode != vanillaDisplayMode) {
+                    // no need to check isBitmapFont
+                    prevTexture = texture;
+                    prevMode = mode;
+                    prevVanillaDisplayMode = vanillaDisplayMode;
+                    builder = source.getBuffer(vanillaDisplayMode != null
+                            ? TextRenderType.getOrCreate(texture, vanillaDisplayMode, isBitmapFont)
+                            : TextRenderType.getOrCreate(texture, mode));
                 }
-            } else {
-                mode = preferredMode;
-                rx = x + positions[i << 1] + glyph.x * invDensity;
-                ry = baseline + positions[i << 1 | 1] + glyph.y * invDensity;
-
-                w = glyph.width * invDensity;
-                h = glyph.height * invDensity;
-                texture = GlyphManager.FONT_SHEET;
-            }
-            /*if (preferredMode == TextRenderType.MODE_NORMAL) {
-                // align to screen pixel center in 2D
-                rx = Math.round(rx * density) * invDensity;
-                ry = Math.round(ry * density) * invDensity;
-            }*/
-            if (isColorEmoji) {
-                r = 0xff;
-                g = 0xff;
-                b = 0xff;
-            } else if ((bits & CharacterStyle.IMPLICIT_COLOR_MASK) != 0) {
-                r = startR;
-                g = startG;
-                b = startB;
-            } else {
-                r = bits >> 16 & 0xff;
-                g = bits >> 8 & 0xff;
-                b = bits & 0xff;
-                if (isShadow) {
-                    r >>= 2;
-                    g >>= 2;
-                    b >>= 2;
+                float upSkew = 0;
+                float downSkew = 0;
+                if (fakeItalic) {
+                    upSkew = 0.25f * ascent;
+                    downSkew = 0.25f * (ascent - h);
                 }
+                builder.addVertex(matrix, rx + upSkew, ry, 0)
+                        .setColor(r, g, b, a)
+                        .setUv(glyph.u1, glyph.v1)
+                        .setLight(packedLight);
+                builder.addVertex(matrix, rx + downSkew, ry + h, 0)
+                        .setColor(r, g, b, a)
+                        .setUv(glyph.u1, glyph.v2)
+                        .setLight(packedLight);
+                builder.addVertex(matrix, rx + w + downSkew, ry + h, 0)
+                        .setColor(r, g, b, a)
+                        .setUv(glyph.u2, glyph.v2)
+                        .setLight(packedLight);
+                builder.addVertex(matrix, rx + w + upSkew, ry, 0)
+                        .setColor(r, g, b, a)
+                        .setUv(glyph.u2, glyph.v1)
+                        .setLight(packedLight);
             }
-            if (builder == null || prevTexture != texture || prevMode != mode ||
-                    prevVanillaDisplayMode != vanillaDisplayMode) {
-                // no need to check isBitmapFont
-                prevTexture = texture;
-                prevMode = mode;
-                prevVanillaDisplayMode = vanillaDisplayMode;
-                builder = source.getBuffer(vanillaDisplayMode != null
-                        ? TextRenderType.getOrCreate(texture, vanillaDisplayMode, isBitmapFont)
-                        : TextRenderType.getOrCreate(texture, mode));
-            }
-            float upSkew = 0;
-            float downSkew = 0;
-            if (fakeItalic) {
-                upSkew = 0.25f * ascent;
-                downSkew = 0.25f * (ascent - h);
-            }
-            builder.addVertex(matrix, rx + upSkew, ry, 0)
-                    .setColor(r, g, b, a)
-                    .setUv(glyph.u1, glyph.v1)
-                    .setLight(packedLight);
-            builder.addVertex(matrix, rx + downSkew, ry + h, 0)
-                    .setColor(r, g, b, a)
-                    .setUv(glyph.u1, glyph.v2)
-                    .setLight(packedLight);
-            builder.addVertex(matrix, rx + w + downSkew, ry + h, 0)
-                    .setColor(r, g, b, a)
-                    .setUv(glyph.u2, glyph.v2)
-                    .setLight(packedLight);
-            builder.addVertex(matrix, rx + w + upSkew, ry, 0)
-                    .setColor(r, g, b, a)
-                    .setUv(glyph.u2, glyph.v1)
-                    .setLight(packedLight);
         }
 
         if (mHasEffect) {
@@ -536,11 +810,11 @@ public class TextLayout {
                     TextRenderEffect.EFFECT_DEPTH, ~0, 0, 0
             );
             builder = source.getBuffer(placeholder.renderType(compatDisplayMode));
-            for (int i = 0, e = glyphs.length; i < e; i++) {
-                final int bits = flags[i];
-                if ((bits & CharacterStyle.EFFECT_MASK) == 0) {
-                    continue;
-                }
+            final var effectPositions = mEffectPositions;
+            final var effectFlags = mEffectFlags;
+            assert effectPositions != null && effectFlags != null;
+            for (int i = 0, e = effectFlags.length; i < e; i++) {
+                final int bits = effectFlags[i];
                 if ((bits & CharacterStyle.IMPLICIT_COLOR_MASK) != 0) {
                     r = startR;
                     g = startG;
@@ -555,8 +829,8 @@ public class TextLayout {
                         b >>= 2;
                     }
                 }
-                final float rx1 = x + positions[i << 1];
-                final float rx2 = x + ((i + 1 == e) ? mTotalAdvance : positions[(i + 1) << 1]);
+                final float rx1 = x + effectPositions[i << 1];
+                final float rx2 = x + effectPositions[i << 1 | 1];
                 if ((bits & CharacterStyle.STRIKETHROUGH_MASK) != 0) {
                     TextRenderEffect.drawStrikethrough(matrix, builder, rx1, rx2, baseline,
                             r, g, b, a, packedLight);
@@ -688,7 +962,7 @@ public class TextLayout {
         }
 
         return new ModernPreparedText(x, top, color, dropShadow, preferredMode, bgColor, xAdj, yAdj, density, glyphs,
-                this);
+                getGlyphQuads(glyphs, density), this);
     }
 
     /**
@@ -735,6 +1009,31 @@ public class TextLayout {
         return mAdvances;
     }
 
+    /**
+     * Prefix sums of {@link #getAdvances()}, the length is {@link #getCharCount()} + 1,
+     * the first value is 0 and the last value is the sum of all advances. The i-th value
+     * is the width of the first i chars. Logical order. Values are non-decreasing, so
+     * width queries can be binary searches.
+     * <p>
+     * Note the values are scaled to Minecraft GUI coordinates.
+     * <p>
+     * Nonnull only when {@link TextLayoutEngine#COMPUTE_ADVANCES}.
+     */
+    public float[] getAdvanceSums() {
+        float[] sums = mAdvanceSums;
+        if (sums == null && mAdvances != null) {
+            final var advances = mAdvances;
+            final int n = getCharCount();
+            sums = new float[n + 1];
+            float sum = 0;
+            for (int i = 0; i < n; i++) {
+                sums[i + 1] = (sum += advances[i]);
+            }
+            mAdvanceSums = sums;
+        }
+        return sums;
+    }
+
     /**
      * Returns which font should be used for the i-th glyph.
      *
@@ -798,6 +1097,81 @@ public class TextLayout {
         return mLineBoundaries;
     }
 
+    /**
+     * Returns the cached line break result for the given line width limit, or null.
+     * The result is the strip indices (exclusive) that lines end at, in logical order.
+     *
+     * @param width the line width limit
+     * @return the line break result, do not modify
+     * @see ModernStringSplitter
+     */
+    @Nullable
+    int[] getLineBreaks(float width) {
+        final var entries = mLineBreaks;
+        if (entries != null) {
+            for (var entry : entries) {
+                if (entry != null && entry.width() == width) {
+                    return entry.breaks();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Cache a line break result, replacing the oldest one.
+     *
+     * @param width  the line width limit
+     * @param breaks the line break result
+     */
+    void putLineBreaks(float width, @Nonnull int[] breaks) {
+        var entries = mLineBreaks;
+        if (entries == null) {
+            mLineBreaks = entries = new LineBreaks[MAX_LINE_BREAKS];
+        }
+        final int index = mNextLineBreaks;
+        entries[index] = new LineBreaks(width, breaks);
+        mNextLineBreaks = (index + 1) % MAX_LINE_BREAKS;
+    }
+
+    /**
+     * Returns the cached lines split from the given formatted text, or null. The layout
+     * doesn't depend on click and hover events, but the lines carry them, so the source
+     * text must be equal as well.
+     *
+     * @param source the formatted text that this layout was created from
+     * @param base   the base style
+     * @param width  the line width limit
+     * @return the lines, do not modify
+     * @see ModernStringSplitter
+     */
+    @Nullable
+    SplitLines getSplitLines(@Nonnull FormattedText source, @Nonnull Style base, float width) {
+        final var entries = mSplitLines;
+        if (entries != null) {
+            for (var entry : entries) {
+                if (entry != null && entry.width() == width && entry.base().equals(base) &&
+                        (entry.source() == source || entry.source().equals(source))) {
+                    return entry;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Cache lines split from formatted text, replacing the oldest one.
+     */
+    void putSplitLines(@Nonnull SplitLines lines) {
+        var entries = mSplitLines;
+        if (entries == null) {
+            mSplitLines = entries = new SplitLines[MAX_LINE_BREAKS];
+        }
+        final int index = mNextSplitLines;
+        entries[index] = lines;
+        mNextSplitLines = (index + 1) % MAX_LINE_BREAKS;
+    }
+
     /**
      * Total advance of this text node.
      * <p>
@@ -814,6 +1188,29 @@ public class TextLayout {
         return mHasEffect;
     }
 
+    /**
+     * Underline and strikethrough ranges x1 x2..., contiguous glyphs with identical effect
+     * flags and color are merged into one range. Relative to the same point as
+     * {@link #getPositions()}, in visual order.
+     * <p>
+     * Nonnull only when {@link #hasEffect()}.
+     */
+    public float[] getEffectPositions() {
+        return mEffectPositions;
+    }
+
+    /**
+     * Effect flags and color of each range in {@link #getEffectPositions()},
+     * masked with {@link #EFFECT_RUN_MASK}.
+     * <p>
+     * Nonnull only when {@link #hasEffect()}.
+     *
+     * @see CharacterStyle
+     */
+    public int[] getEffectFlags() {
+        return mEffectFlags;
+    }
+
     /**
      * Precomputed value that indicates whether flags array contains any color emoji replacement flag.
      */
@@ -840,7 +1237,15 @@ public class TextLayout {
         if (mAdvances != null) {
             m += 16 + MathUtil.align8(mAdvances.length << 2);
         }
+        final float[] sums = mAdvanceSums;
+        if (sums != null) {
+            m += 16 + MathUtil.align8(sums.length << 2);
+        }
         m += 16 + MathUtil.align8(mGlyphFlags.length << 2); // flags
+        if (mEffectFlags != null) {
+            m += 16 + MathUtil.align8(mEffectPositions.length << 2);
+            m += 16 + MathUtil.align8(mEffectFlags.length << 2);
+        }
         if (mLineBoundaries != null) {
             m += 16 + MathUtil.align8(mLineBoundaries.length << 2);
         }
@@ -855,6 +1260,45 @@ public class TextLayout {
                     mBakedGlyphsArray.valueAt(0).length << 2
             )) * mBakedGlyphsArray.size();
         }
+        if (mGlyphQuads != null) {
+            m += 16 + MathUtil.align8(mGlyphQuads.length << 2);
+        }
+        if (mGlyphQuadsForSDF != null) {
+            m += 16 + MathUtil.align8(mGlyphQuadsForSDF.length << 2);
+        }
+        if (mGlyphQuadsArray != null) {
+            m += (16 + MathUtil.align8(
+                    mGlyphQuadsArray.valueAt(0).length << 2
+            )) * mGlyphQuadsArray.size();
+        }
+        final var lineBreaks = mLineBreaks;
+        if (lineBreaks != null) {
+            m += 16 + MathUtil.align8(lineBreaks.length << 2);
+            for (var entry : lineBreaks) {
+                if (entry != null) {
+                    m += 16 + 16 + MathUtil.align8(entry.breaks().length << 2);
+                }
+            }
+        }
+        final var splitLines = mSplitLines;
+        if (splitLines != null) {
+            m += 16 + MathUtil.align8(splitLines.length << 2);
+            for (var entry : splitLines) {
+                if (entry != null) {
+                    // lines share styles and strings with the source
+                    m += 32 + 16 + MathUtil.align8(entry.lines().length << 2) +
+                            16 + MathUtil.align8(entry.nonNewParas().length);
+                }
+            }
+        }
+        if (mWorldMeshes != null) {
+            m += 16 + MathUtil.align8(mWorldMeshes.length << 2);
+            for (var mesh : mWorldMeshes) {
+                if (mesh != null) {
+                    m += mesh.getMemorySize();
+                }
+            }
+        }
         return m + 64;
     }
 
@@ -1052,4 +1496,18 @@ public class TextLayout {
             b.append(' ');
         }
     }
+
+    /**
+     * A line break result, see {@link #getLineBreaks(float)}.
+     */
+    record LineBreaks(float width, int[] breaks) {
+    }
+
+    /**
+     * Lines split from formatted text and whether each line continues the previous
+     * paragraph, see {@link #getSplitLines(FormattedText, Style, float)}.
+     */
+    record SplitLines(FormattedText source, Style base, float width,
+                      FormattedText[] lines, boolean[] nonNewParas) {
+    }
 }
@@ -42,6 +42,7 @@ import net.minecraft.client.gui.font.FontSet;
 import net.minecraft.client.gui.font.providers.*;
 import net.minecraft.network.chat.*;
 import net.minecraft.resources.Identifier;
+import net.minecraft.server.packs.resources.Resource;
 import net.minecraft.server.packs.resources.ResourceManager;
 import net.minecraft.util.*;
 import net.minecraft.util.profiling.Profiler;
@@ -53,10 +54,12 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.awt.font.GlyphVector;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
 import java.lang.ref.WeakReference;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -272,6 +275,12 @@ public class TextLayoutEngine extends FontResourceManager
 
     private FontCollection mRawDefaultFontCollection;
 
+    /**
+     * Raw font bundles of the last resource reload, unchanged bundles are reused by
+     * the next reload, see {@link RawFontBundle#fingerprint}. Null before the first reload.
+     */
+    private volatile Map<Identifier, RawFontBundle> mFontBundles;
+
     private final ConcurrentHashMap<Identifier, FontCollection> mRegisteredFonts = new ConcurrentHashMap<>();
 
     public static final int DEFAULT_MIN_PIXEL_DENSITY_FOR_SDF = 4;
@@ -329,6 +338,8 @@ public class TextLayoutEngine extends FontResourceManager
         mGlyphManager = GlyphManager.getInstance();
 
         mGlyphManager.addAtlasInvalidationCallback(invalidationInfo -> {
+            // retained world text meshes reference atlas coordinates
+            WorldTextMesh.invalidateAll();
             if (invalidationInfo.resize()) {
                 // texture atlas is resized to a larger size, but no glyphs are evicted
                 //invalidateStrikeCache();
@@ -409,6 +420,8 @@ public class TextLayoutEngine extends FontResourceManager
         mFormattedCache = new HashMap<>();
         // Just clear TextRenderType instances, font textures are remained
         TextRenderType.clear(/*cleanup*/ false);
+        // the layer may refer to glyphs of old layouts
+        CachedChatLayer.getInstance().invalidate();
         if (count > 0) {
             LOGGER.debug(MARKER, "Cleanup {} text layout entries", count);
         }
@@ -636,6 +649,7 @@ public class TextLayoutEngine extends FontResourceManager
 
     private static final class LoadResults extends FontResourceManager.LoadResults {
         volatile Map<Identifier, FontCollection> mFontCollections;
+        volatile Map<Identifier, RawFontBundle> mFontBundles;
     }
 
     // ASYNC
@@ -643,15 +657,21 @@ public class TextLayoutEngine extends FontResourceManager
     private CompletableFuture<LoadResults> prepareResources(@Nonnull ResourceManager resourceManager,
                                                             @Nonnull Executor preparationExecutor) {
         final var results = new LoadResults();
-        final var loadFonts = CompletableFuture.runAsync(() -> {
+        final var previousBundles = mFontBundles;
+        final var loadFonts = CompletableFuture.supplyAsync(() -> {
                     // under certain circumstances (or mods), ModernUI bundled resources are not loaded
                     // when the method is first called, this ensures bundled resources will be registered
                     if (resourceManager.getNamespaces().contains(ModernUI.ID)) {
                         ModernUIClient.getInstance().loadTypeface();
                     }
-                    loadFonts(resourceManager, results);
+                    return loadRawFonts(resourceManager, preparationExecutor, previousBundles);
                 },
-                preparationExecutor);
+                preparationExecutor)
+                .thenCompose(Function.identity())
+                .thenCompose(bundles -> CompletableFuture.allOf(bundles.stream()
+                                .flatMap(bundle -> bundle.pending.stream())
+                                .toArray(CompletableFuture[]::new))
+                        .thenRunAsync(() -> resolveFonts(bundles, results), preparationExecutor));
         final var loadEmojis = CompletableFuture.runAsync(() ->
                         loadEmojis(resourceManager, results),
                 preparationExecutor);
@@ -667,7 +687,9 @@ public class TextLayoutEngine extends FontResourceManager
 
     // SYNC
     private void applyResources(@Nonnull LoadResults results) {
-        closeFonts();
+        final var oldBundles = mFontBundles;
+        final var oldEmojiFont = mEmojiFont;
+        mFontBundles = results.mFontBundles;
         // reload fonts
         mFontCollections.clear();
         mFontCollections.putAll(mRegisteredFonts);
@@ -698,15 +720,58 @@ public class TextLayoutEngine extends FontResourceManager
         if (mRawDefaultFontCollection == null) {
             throw new IllegalStateException("Default font failed to load");
         }
-        super.applyResources(results);
+        applyEmojisAndTypeface(results);
+        if (oldBundles == null) {
+            reloadAll();
+        } else {
+            // keep glyph atlases, only forget the fonts that are gone
+            var evicted = releaseFonts(oldBundles, results.mFontBundles);
+            if (oldEmojiFont != null && oldEmojiFont != mEmojiFont) {
+                evicted.add(oldEmojiFont);
+            }
+            mGlyphManager.evictFonts(evicted);
+            // the typeface has been reloaded, so layouts are always recreated
+            super.reloadAll();
+            reload();
+            LOGGER.info(GlyphManager.MARKER, "Partially reloaded glyph manager, evicted {} fonts",
+                    evicted.size());
+        }
+    }
+
+    /**
+     * Close the fonts of the old bundles that are not reused by the new bundles.
+     *
+     * @return the fonts to evict from glyph manager
+     */
+    @Nonnull
+    private static ArrayList<Font> releaseFonts(@Nonnull Map<Identifier, RawFontBundle> oldBundles,
+                                                @Nonnull Map<Identifier, RawFontBundle> newBundles) {
+        var evicted = new ArrayList<Font>();
+        for (var bundle : oldBundles.values()) {
+            if (newBundles.get(bundle.name) == bundle) {
+                continue;
+            }
+            for (var object : bundle.families) {
+                if (object instanceof FontFamily family) {
+                    var font = family.getClosestMatch(FontPaint.NORMAL);
+                    if (font instanceof BitmapFont bitmapFont) {
+                        bitmapFont.close();
+                    }
+                    evicted.add(font);
+                }
+            }
+        }
+        return evicted;
     }
 
     @Override
     public void close() {
         mGlyphManager.closeAtlases();
         closeFonts();
+        mFontBundles = null;
         // do final cleanup
         TextRenderType.clear(/*cleanup*/ true);
+        CachedChatLayer.getInstance().close();
     }
 
     private void closeFonts() {
@@ -757,19 +822,31 @@ public class TextLayoutEngine extends FontResourceManager
     private static final class RawFontBundle
             implements DependencySorter.Entry<Identifier> {
         final Identifier name;
+        /**
+         * The resource stack this bundle was built from, i.e. source pack and content hash of
+         * font definitions and the files they refer to. A bundle with the same fingerprint
+         * is reused as is by the next reload.
+         */
+        final List<String> fingerprint;
         /**
          * We load font families other than {@link #isUnicodeFont(Identifier)}.
          * <p>
-         * Either FontFamily or Identifier (reference).
+         * Either FontFamily or Identifier (reference), or a CompletableFuture of
+         * FontFamily while loading, see {@link #pending}.
          */
         Set<Object> families = new LinkedHashSet<>();
+        /**
+         * Bitmap and TTF providers being decoded concurrently.
+         */
+        List<CompletableFuture<FontFamily>> pending = new ArrayList<>();
         /**
          * References to other fonts.
          */
         Set<Identifier> dependencies = new HashSet<>();
 
-        RawFontBundle(Identifier name) {
+        RawFontBundle(Identifier name, List<String> fingerprint) {
             this.name = name;
+            this.fingerprint = fingerprint;
         }
 
         @Override
@@ -782,13 +859,37 @@ public class TextLayoutEngine extends FontResourceManager
         }
     }
 
+    /**
+     * A file referred to by a bitmap or TTF provider, read once on the executor, for both
+     * the fingerprint and decoding. The data is null if the file failed to read.
+     */
+    private record RawFontFile(Identifier location, String fingerprint, @Nullable byte[] data) {
+    }
+
+    private record RawProvider(String sourcePackId, int index,
+                               JsonObject metadata, GlyphProviderDefinition definition,
+                               @Nullable CompletableFuture<RawFontFile> file) {
+    }
+
+    private record RawFontDefinition(Identifier name, List<String> fingerprint,
+                                     List<RawProvider> providers, List<Resource> resources) {
+    }
+
     // ASYNC
-    private static void loadFonts(@Nonnull ResourceManager resources, @Nonnull LoadResults results) {
+    // parse font definitions, bitmap and TTF providers are decoded concurrently on the executor,
+    // a bundle is reused if its resource stack is not changed since the previous reload,
+    // bundles are created once all the files are read, without blocking the executor
+    @Nonnull
+    private static CompletableFuture<ArrayList<RawFontBundle>> loadRawFonts(@Nonnull ResourceManager resources,
+                                                         @Nonnull Executor executor,
+                                                         @Nullable Map<Identifier, RawFontBundle> previousBundles) {
         final var gson = new GsonBuilder()
                 .setPrettyPrinting()
                 .disableHtmlEscaping()
                 .create();
-        final var bundles = new ArrayList<RawFontBundle>();
+        // the files are read and hashed concurrently while definitions are being parsed
+        final var files = new HashMap<Identifier, CompletableFuture<RawFontFile>>();
+        final var definitions = new ArrayList<RawFontDefinition>();
         for (var entry : resources.listResourceStacks("font",
                 res -> res.getPath().endsWith(".json")).entrySet()) {
             var location = entry.getKey();
@@ -798,30 +899,118 @@ public class TextLayoutEngine extends FontResourceManager
             if (isUnicodeFont(name)) {
                 continue;
             }
-            var bundle = new RawFontBundle(name);
-            bundles.add(bundle);
+            var fingerprint = new ArrayList<String>();
+            var providers = new ArrayList<RawProvider>();
             for (var resource : entry.getValue()) {
-                try (var reader = resource.openAsReader()) {
-                    var providers = GsonHelper.getAsJsonArray(Objects.requireNonNull(
-                            gson.fromJson(reader, JsonObject.class)), "providers");
-                    for (int i = 0; i < providers.size(); i++) {
+                try (var stream = resource.open()) {
+                    byte[] bytes = stream.readAllBytes();
+                    fingerprint.add(getFingerprint(location, resource.sourcePackId(), bytes));
+                    var providerArray = GsonHelper.getAsJsonArray(Objects.requireNonNull(
+                            gson.fromJson(new String(bytes, StandardCharsets.UTF_8), JsonObject.class)),
+                            "providers");
+                    for (int i = 0; i < providerArray.size(); i++) {
                         var metadata = GsonHelper.convertToJsonObject(
-                                providers.get(i), "providers[" + i + "]");
+                                providerArray.get(i), "providers[" + i + "]");
                         var definition = GlyphProviderDefinition.Conditional.CODEC
                                 .parse(JsonOps.INSTANCE, metadata)
                                 .getOrThrow(JsonParseException::new)
                                 .definition();
-                        loadSingleFont(resources, name, bundle,
-                                resource.sourcePackId(), i, metadata, definition);
+                        // the file may be replaced by another pack without changing the definition
+                        final Identifier file = switch (definition.type()) {
+                            case BITMAP -> ((BitmapProvider.Definition) definition).file().withPrefix("textures/");
+                            case TTF -> ((TrueTypeGlyphProviderDefinition) definition).location().withPrefix("font/");
+                            default -> null;
+                        };
+                        providers.add(new RawProvider(resource.sourcePackId(), i, metadata, definition,
+                                file != null
+                                        ? files.computeIfAbsent(file, __ -> CompletableFuture.supplyAsync(
+                                        () -> readFontFile(resources, file), executor))
+                                        : null));
                     }
-                    LOGGER.info(MARKER, "Loaded raw font '{}' in pack: '{}'",
-                            name, resource.sourcePackId());
                 } catch (Exception e) {
                     LOGGER.warn(MARKER, "Failed to load font '{}' in pack: '{}'",
                             name, resource.sourcePackId(), e);
                 }
             }
-            LOGGER.info(MARKER, "Loaded raw font bundle: '{}', font set: [{}]", location,
+            definitions.add(new RawFontDefinition(name, fingerprint, providers, entry.getValue()));
+        }
+        return CompletableFuture.allOf(files.values().toArray(CompletableFuture[]::new))
+                .thenApplyAsync(__ -> createRawFonts(definitions, executor, previousBundles), executor);
+    }
+
+    // ASYNC
+    // called after all the font files are read
+    @Nonnull
+    private static ArrayList<RawFontBundle> createRawFonts(@Nonnull List<RawFontDefinition> definitions,
+                                                           @Nonnull Executor executor,
+                                                           @Nullable Map<Identifier, RawFontBundle> previousBundles) {
+        final var bundles = new ArrayList<RawFontBundle>();
+        for (var definition : definitions) {
+            var name = definition.name();
+            var fingerprint = definition.fingerprint();
+            for (var provider : definition.providers()) {
+                if (provider.file() != null) {
+                    // already completed
+                    fingerprint.add(provider.file().join().fingerprint());
+                }
+            }
+            RawFontBundle previous = previousBundles != null ? previousBundles.get(name) : null;
+            if (previous != null && previous.fingerprint.equals(fingerprint)) {
+                bundles.add(previous);
+                LOGGER.info(MARKER, "Reused raw font '{}'", name);
+                continue;
+            }
+            var bundle = new RawFontBundle(name, fingerprint);
+            bundles.add(bundle);
+            for (var provider : definition.providers()) {
+                loadSingleFont(executor, name, bundle, provider);
+            }
+            LOGGER.info(MARKER, "Loaded raw font '{}' from packs: [{}]", name,
+                    definition.resources().stream().map(Resource::sourcePackId)
+                            .collect(Collectors.joining(",")));
+        }
+        return bundles;
+    }
+
+    // ASYNC
+    @Nonnull
+    private static RawFontFile readFontFile(@Nonnull ResourceManager resources, @Nonnull Identifier location) {
+        var resource = resources.getResource(location).orElse(null);
+        if (resource == null) {
+            return new RawFontFile(location, location + "@missing", null);
+        }
+        try (var stream = resource.open()) {
+            byte[] data = stream.readAllBytes();
+            return new RawFontFile(location, getFingerprint(location, resource.sourcePackId(), data), data);
+        } catch (Exception e) {
+            LOGGER.warn(MARKER, "Failed to read font file '{}' in pack: '{}'",
+                    location, resource.sourcePackId(), e);
+            return new RawFontFile(location, location + "@" + resource.sourcePackId() + "/failed", null);
+        }
+    }
+
+    // ASYNC
+    // called after all pending providers are done, dependency resolution is sequential
+    private static void resolveFonts(@Nonnull ArrayList<RawFontBundle> bundles,
+                                     @Nonnull LoadResults results) {
+        for (var bundle : bundles) {
+            if (!bundle.pending.isEmpty()) {
+                // replace futures with loaded families, keep the order of providers
+                var families = new LinkedHashSet<Object>();
+                for (var object : bundle.families) {
+                    if (object instanceof CompletableFuture<?> future) {
+                        var family = future.join();
+                        if (family != null) {
+                            families.add(family);
+                        }
+                    } else {
+                        families.add(object);
+                    }
+                }
+                bundle.families = families;
+                bundle.pending.clear();
+            }
+            LOGGER.info(MARKER, "Loaded raw font bundle: '{}', font set: [{}]", bundle.name,
                     bundle.families.stream().map(object -> {
                                 if (object instanceof FontFamily family) {
                                     return family.getFamilyName();
@@ -864,20 +1053,27 @@ public class TextLayoutEngine extends FontResourceManager
         });
         map.remove(INTERNAL_DEFAULT);
         results.mFontCollections = map;
+        final var bundleMap = new HashMap<Identifier, RawFontBundle>();
+        for (var bundle : bundles) {
+            bundleMap.put(bundle.name, bundle);
+        }
+        results.mFontBundles = bundleMap;
     }
 
-    private static void loadSingleFont(@Nonnull ResourceManager resources,
+    private static void loadSingleFont(@Nonnull Executor executor,
                                        Identifier name,
                                        RawFontBundle bundle,
-                                       String sourcePackId, int index,
-                                       JsonObject metadata,
-                                       @Nonnull GlyphProviderDefinition definition) {
+                                       @Nonnull RawProvider provider) {
+        final var definition = provider.definition();
+        final var metadata = provider.metadata();
+        final var sourcePackId = provider.sourcePackId();
+        final int index = provider.index();
         switch (definition.type()) {
             case BITMAP -> {
-                var bitmapFont = BitmapFont.create((BitmapProvider.Definition) definition, resources);
-                bundle.families.add(
-                        new FontFamily(bitmapFont)
-                );
+                var bitmap = (BitmapProvider.Definition) definition;
+                addPendingFont(bundle, name, sourcePackId, index, Objects.requireNonNull(provider.file())
+                        .thenApplyAsync(file -> new FontFamily(
+                                BitmapFont.create(bitmap, file.data())), executor));
             }
             case TTF -> {
                 var ttf = (TrueTypeGlyphProviderDefinition) definition;
@@ -897,9 +1093,9 @@ public class TextLayoutEngine extends FontResourceManager
                     LOGGER.info(MARKER, "Ignore 'skip={}' of providers[{}] in font '{}' in pack: '{}'",
                             ttf.skip(), index, name, sourcePackId);
                 }
-                bundle.families.add(
-                        createTTF(ttf.location(), resources)
-                );
+                addPendingFont(bundle, name, sourcePackId, index, Objects.requireNonNull(provider.file())
+                        .thenApplyAsync(file -> new FontFamily(
+                                TrueTypeFont.create(file.location(), file.data())), executor));
             }
             case SPACE -> {
                 var spaceFont = SpaceFont.create(name, (SpaceProvider.Definition) definition);
@@ -924,14 +1120,16 @@ public class TextLayoutEngine extends FontResourceManager
         }
     }
 
-    @Nonnull
-    private static FontFamily createTTF(@Nonnull Identifier file, ResourceManager resources) {
-        var location = file.withPrefix("font/");
-        try (var stream = resources.open(location)) {
-            return FontFamily.createFamily(stream, /*register*/false);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+    private static void addPendingFont(@Nonnull RawFontBundle bundle, Identifier name,
+                                       String sourcePackId, int index,
+                                       @Nonnull CompletableFuture<FontFamily> future) {
+        future = future.exceptionally(e -> {
+            LOGGER.warn(MARKER, "Failed to load providers[{}] in font '{}' in pack: '{}'",
+                    index, name, sourcePackId, e);
+            return null;
+        });
+        bundle.families.add(future);
+        bundle.pending.add(future);
     }
 
     ////// END Resource Reloading
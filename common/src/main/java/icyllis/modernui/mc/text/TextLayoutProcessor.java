@@ -23,6 +23,7 @@ import com.ibm.icu.text.BidiRun;
 import com.ibm.icu.text.BreakIterator;
 import icyllis.modernui.ModernUI;
 import icyllis.modernui.graphics.text.*;
+import icyllis.modernui.mc.FrameTimings;
 import icyllis.modernui.mc.ModernUIMod;
 import icyllis.modernui.mc.text.mixin.MixinBidiReorder;
 import icyllis.modernui.mc.text.mixin.MixinClientLanguage;
@@ -213,6 +214,14 @@ public class TextLayoutProcessor {
 
     private final FontPaint mFontPaint = new FontPaint();
 
+    /**
+     * ICU line break iterators by locale, created with {@link #mLineBreakStyle} and
+     * {@link #mLineBreakWordStyle}, see {@link #getLineBreaker(Locale)}.
+     */
+    private final HashMap<Locale, BreakIterator> mLineBreakers = new HashMap<>();
+    private int mLineBreakStyle = LineBreakConfig.LINE_BREAK_STYLE_NONE;
+    private int mLineBreakWordStyle = LineBreakConfig.LINE_BREAK_WORD_STYLE_NONE;
+
     /*
      * Needed in RTL layout
      */
@@ -447,6 +456,7 @@ public class TextLayoutProcessor {
     @Nonnull
     public TextLayout createVanillaLayout(@Nonnull String text, @Nonnull Style style,
                                           int resLevel, int computeFlags) {
+        final long startNanos = System.nanoTime();
         StringDecomposer.iterateFormatted(text, style, mSequenceBuilder);
         TextLayout layout = createNewLayout(resLevel, computeFlags);
         if (DEBUG) {
@@ -454,12 +464,14 @@ public class TextLayoutProcessor {
                     mBuilder.toString(), text, layout.toDetailedString());
         }
         reset();
+        FrameTimings.addTextNanos(System.nanoTime() - startNanos);
         return layout;
     }
 
     @Nonnull
     public TextLayout createTextLayout(@Nonnull FormattedText text, @Nonnull Style style,
                                        int resLevel, int computeFlags) {
+        final long startNanos = System.nanoTime();
         text.visit(mContentBuilder, style);
         TextLayout layout = createNewLayout(resLevel, computeFlags);
         if (DEBUG) {
@@ -467,12 +479,14 @@ public class TextLayoutProcessor {
                     mBuilder.toString(), text, layout.toDetailedString());
         }
         reset();
+        FrameTimings.addTextNanos(System.nanoTime() - startNanos);
         return layout;
     }
 
     @Nonnull
     public TextLayout createSequenceLayout(@Nonnull FormattedCharSequence sequence,
                                            int resLevel, int computeFlags) {
+        final long startNanos = System.nanoTime();
         sequence.accept(mSequenceBuilder);
         TextLayout layout = createNewLayout(resLevel, computeFlags);
         if (DEBUG) {
@@ -480,6 +494,7 @@ public class TextLayoutProcessor {
                     mBuilder.toString(), sequence, layout.toDetailedString());
         }
         reset();
+        FrameTimings.addTextNanos(System.nanoTime() - startNanos);
         return layout;
     }
 
@@ -967,11 +982,9 @@ public class TextLayoutProcessor {
             }
         }*/
 
-        if (mComputeLineBoundaries) {
+        if (mComputeLineBoundaries && !computeSimpleLineBoundaries(text, start, limit)) {
             // Compute line break boundaries, will be sorted into logical order.
-            BreakIterator breaker = BreakIterator.getLineInstance(
-                    LineBreaker.getLocaleWithLineBreakOption(mFontPaint.getLocale(), sLbStyle, sLbWordStyle)
-            );
+            BreakIterator breaker = getLineBreaker(mFontPaint.getLocale());
             final CharArrayIterator charIterator = new CharArrayIterator(text, start, limit);
             breaker.setText(charIterator);
             int prevPos = start, currPos;
@@ -982,6 +995,72 @@ public class TextLayoutProcessor {
         }
     }
 
+    /**
+     * Returns a cached ICU line break iterator for the given locale and current line break
+     * config, creating one is expensive. The caller must set new text before using it.
+     */
+    @Nonnull
+    private BreakIterator getLineBreaker(@Nonnull Locale locale) {
+        final int lbStyle = sLbStyle;
+        final int lbWordStyle = sLbWordStyle;
+        if (lbStyle != mLineBreakStyle || lbWordStyle != mLineBreakWordStyle) {
+            mLineBreakers.clear();
+            mLineBreakStyle = lbStyle;
+            mLineBreakWordStyle = lbWordStyle;
+        }
+        BreakIterator breaker = mLineBreakers.get(locale);
+        if (breaker == null) {
+            breaker = BreakIterator.getLineInstance(
+                    LineBreaker.getLocaleWithLineBreakOption(locale, lbStyle, lbWordStyle)
+            );
+            mLineBreakers.put(locale, breaker);
+        }
+        return breaker;
+    }
+
+    /**
+     * Fast path of Unicode line breaking for runs of Latin letters, digits, spaces and a few
+     * punctuation marks, where UAX #14 only allows breaking after spaces and after hyphens
+     * followed by a letter. Returns false without adding anything if the run contains other
+     * characters or ambiguous sequences, then ICU is required.
+     */
+    private boolean computeSimpleLineBoundaries(@Nonnull char[] text, int start, int limit) {
+        if (start >= limit) {
+            return true;
+        }
+        for (int i = start; i < limit; i++) {
+            final char c = text[i];
+            if (c == '.' || c == ',') {
+                // infix separator followed by a number has special rules
+                if (i + 1 < limit && text[i + 1] >= '0' && text[i + 1] <= '9') {
+                    return false;
+                }
+            } else if (c == '-') {
+                // leading hyphen has special rules
+                if (i == start || text[i - 1] == ' ') {
+                    return false;
+                }
+            } else if (c != ' ' && c != '\'' && !isSimpleLatinAlnum(c)) {
+                return false;
+            }
+        }
+        for (int i = start + 1; i < limit; i++) {
+            final char prev = text[i - 1];
+            final char c = text[i];
+            if ((prev == ' ' && c != ' ') ||
+                    (prev == '-' && c > '9' && isSimpleLatinAlnum(c))) {
+                mLineBoundaries.add(i);
+            }
+        }
+        mLineBoundaries.add(limit);
+        return true;
+    }
+
+    private static boolean isSimpleLatinAlnum(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ||
+                (c >= '\u00C0' && c <= '\u00FF' && c != '\u00D7' && c != '\u00F7');
+    }
+
     /**
      * Special case of {@link #handleStyleRun(char[], int, int, boolean, int, FontDescription)}
      * which only performs bitmap replacement without any text shaping or any special effects.
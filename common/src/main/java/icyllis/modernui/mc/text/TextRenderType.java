@@ -482,6 +482,8 @@ public abstract class TextRenderType {
     }*/
 
     public static synchronized void clear(boolean cleanup) {
+        // retained world text meshes reference render types
+        WorldTextMesh.invalidateAll();
         if (sFirstSDFFillType != null) {
             assert (!sSDFFillTypes.isEmpty());
             var access = (AccessBufferSource) Minecraft.getInstance().renderBuffers().bufferSource();
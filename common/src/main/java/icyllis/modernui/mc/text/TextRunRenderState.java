@@ -20,7 +20,6 @@ package icyllis.modernui.mc.text;
 
 import com.mojang.blaze3d.pipeline.RenderPipeline;
 import com.mojang.blaze3d.vertex.VertexConsumer;
-import net.minecraft.client.gui.font.glyphs.BakedGlyph;
 import net.minecraft.client.gui.navigation.ScreenRectangle;
 import net.minecraft.client.gui.render.TextureSetup;
 import net.minecraft.client.renderer.state.gui.GuiElementRenderState;
@@ -33,6 +32,7 @@ import javax.annotation.Nullable;
 /**
  * Similar to {@link net.minecraft.client.renderer.state.gui.GlyphRenderState}.
  *
+ * @param quads        layout-space glyph quads, see {@link TextLayout#QUAD_STRIDE}
  * @param isColorEmoji whether the run is color emoji
  * @param isDirectMask whether the whole text uses normal or uniform scale
  */
@@ -42,8 +42,7 @@ public record TextRunRenderState(
         TextureSetup textureSetup,
         @Nullable ScreenRectangle scissorArea,
         float x, float top, int color, boolean dropShadow,
-        BakedGlyph[] glyphs,
-        float[] positions, int[] flags,
+        float[] quads, int[] flags,
         int glyphStart, int glyphEnd, boolean isColorEmoji,
         boolean isDirectMask, float density, float shadowOffset
 ) implements GuiElementRenderState {
@@ -67,60 +66,37 @@ public record TextRunRenderState(
         int r;
         int g;
         int b;
-        var glyphs = this.glyphs;
-        var positions = this.positions;
+        var quads = this.quads;
         var flags = this.flags;
         var pose = this.pose;
         float x = this.x;
+        float bitmapShadowOffset = 0;
         if (isShadow) {
             x += shadowOffset;
             baseline += shadowOffset;
+            // bitmap font shadow offset is always 1 pixel
+            bitmapShadowOffset = 1.0f - shadowOffset;
         }
-        for (int i = glyphStart; i < glyphEnd; i++) {
-            var vglyph = glyphs[i];
-            if (vglyph == null) {
-                continue;
-            }
-            if (!(vglyph instanceof ModernBakedGlyph glyph)) {
+        final boolean isDirectMask = this.isDirectMask;
+        final float density = this.density;
+        for (int i = glyphStart, q = glyphStart * TextLayout.QUAD_STRIDE; i < glyphEnd;
+             i++, q += TextLayout.QUAD_STRIDE) {
+            float rx = quads[q];
+            if (Float.isNaN(rx)) {
                 continue;
             }
             final int bits = flags[i];
-            float rx;
-            float ry;
-            final float w;
-            final float h;
-            boolean fakeItalic = false;
-            int ascent = 0;
-            if ((bits & CharacterStyle.NO_SHADOW_MASK) != 0 && isShadow) {
-                continue;
-            }
-            if ((bits & CharacterStyle.ANY_BITMAP_REPLACEMENT) != 0) {
-                final float scaleFactor;
-                if (!isColorEmoji) {
-                    ascent = -glyph.y / TextLayoutEngine.BITMAP_SCALE;
-                    scaleFactor = 1f / TextLayoutEngine.BITMAP_SCALE;
-                } else {
-                    assert !isShadow;
-                    ascent = TextLayout.STANDARD_BASELINE_OFFSET;
-                    scaleFactor = TextLayoutProcessor.sBaseFontSize / GlyphManager.EMOJI_BASE;
+            rx += x;
+            float ry = baseline + quads[q + 1];
+            if (isShadow) {
+                if ((bits & CharacterStyle.NO_SHADOW_MASK) != 0) {
+                    continue;
                 }
-                fakeItalic = (bits & CharacterStyle.ITALIC_MASK) != 0;
-                rx = x + positions[i << 1] + glyph.x * scaleFactor;
-                ry = baseline + positions[i << 1 | 1] + glyph.y * scaleFactor;
-                if (isShadow) {
-                    // bitmap font shadow offset is always 1 pixel
-                    rx += 1.0f - shadowOffset;
-                    ry += 1.0f - shadowOffset;
+                if ((bits & CharacterStyle.ANY_BITMAP_REPLACEMENT) != 0) {
+                    assert !isColorEmoji;
+                    rx += bitmapShadowOffset;
+                    ry += bitmapShadowOffset;
                 }
-
-                w = glyph.width * scaleFactor;
-                h = glyph.height * scaleFactor;
-            } else {
-                rx = x + positions[i << 1] + glyph.x * invDensity;
-                ry = baseline + positions[i << 1 | 1] + glyph.y * invDensity;
-
-                w = glyph.width * invDensity;
-                h = glyph.height * invDensity;
             }
             if (isDirectMask) {
                 // align to screen pixel center in 2D
@@ -145,27 +121,29 @@ public record TextRunRenderState(
                     b >>= 2;
                 }
             }
-            float upSkew = 0;
-            float downSkew = 0;
-            if (fakeItalic) {
-                upSkew = 0.25f * ascent;
-                downSkew = 0.25f * (ascent - h);
-            }
+            final float w = quads[q + 2];
+            final float h = quads[q + 3];
+            final float upSkew = quads[q + 4];
+            final float downSkew = quads[q + 5];
+            final float u1 = quads[q + 6];
+            final float v1 = quads[q + 7];
+            final float u2 = quads[q + 8];
+            final float v2 = quads[q + 9];
             builder.addVertexWith2DPose(pose, rx + upSkew, ry)
                     .setColor(r, g, b, a)
-                    .setUv(glyph.u1, glyph.v1)
+                    .setUv(u1, v1)
                     .setLight(LightCoordsUtil.FULL_BRIGHT);
             builder.addVertexWith2DPose(pose, rx + downSkew, ry + h)
                     .setColor(r, g, b, a)
-                    .setUv(glyph.u1, glyph.v2)
+                    .setUv(u1, v2)
                     .setLight(LightCoordsUtil.FULL_BRIGHT);
             builder.addVertexWith2DPose(pose, rx + w + downSkew, ry + h)
                     .setColor(r, g, b, a)
-                    .setUv(glyph.u2, glyph.v2)
+                    .setUv(u2, v2)
                     .setLight(LightCoordsUtil.FULL_BRIGHT);
             builder.addVertexWith2DPose(pose, rx + w + upSkew, ry)
                     .setColor(r, g, b, a)
-                    .setUv(glyph.u2, glyph.v1)
+                    .setUv(u2, v1)
                     .setLight(LightCoordsUtil.FULL_BRIGHT);
         }
     }
@@ -0,0 +1,192 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2025 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.mc.text;
+
+import icyllis.arc3d.sketch.Typeface;
+import icyllis.modernui.graphics.Rect;
+import icyllis.modernui.graphics.text.*;
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import net.minecraft.resources.Identifier;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Locale;
+
+import static icyllis.modernui.mc.ModernUIMod.LOGGER;
+
+/**
+ * A TrueType or OpenType font from a resource pack. The font header is validated on
+ * creation, and the font file is parsed on first use, see {@link #getOutlineFont()},
+ * so a font that is never queried is never parsed. All the queries are delegated to
+ * the parsed {@link OutlineFont}; if parsing failed, this font provides no glyphs.
+ * <p>
+ * Laid-out glyphs refer to this font, {@link GlyphManager} renders them with the
+ * parsed outline font.
+ *
+ * @see net.minecraft.client.gui.font.providers.TrueTypeGlyphProviderDefinition
+ */
+public class TrueTypeFont implements Font {
+
+    private final Identifier mName;
+
+    /**
+     * The font file, parsed on first use and then released.
+     */
+    @Nullable
+    private byte[] mData;
+    @Nullable
+    private volatile OutlineFont mFont;
+    private volatile boolean mLoaded;
+
+    private TrueTypeFont(Identifier name, byte[] data) {
+        mName = name;
+        mData = data;
+    }
+
+    /**
+     * @param location the font file location
+     * @param data     the font file, or null if it failed to read
+     */
+    @Nonnull
+    public static TrueTypeFont create(Identifier location, @Nullable byte[] data) {
+        // a malformed file fails now so that the provider is skipped
+        try {
+            if (data == null) {
+                throw new FileNotFoundException(location.toString());
+            }
+            checkFontHeader(data, location);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return new TrueTypeFont(location, data);
+    }
+
+    // sfnt version of TrueType, OpenType (CFF), Apple TrueType, or TrueType collection
+    private static void checkFontHeader(@Nonnull byte[] data, Identifier location) throws IOException {
+        if (data.length < 12) {
+            throw new IOException("Truncated font file " + location);
+        }
+        int tag = (data[0] & 0xFF) << 24 | (data[1] & 0xFF) << 16 | (data[2] & 0xFF) << 8 | (data[3] & 0xFF);
+        if (tag != 0x00010000 && tag != 0x4F54544F && tag != 0x74727565 && tag != 0x74746366) {
+            throw new IOException("Bad sfnt version " + Integer.toHexString(tag) + " in " + location);
+        }
+    }
+
+    /**
+     * Parse the font file if not yet.
+     *
+     * @return the parsed font, or null if the file failed to parse
+     */
+    @Nullable
+    public OutlineFont getOutlineFont() {
+        if (!mLoaded) {
+            synchronized (this) {
+                if (!mLoaded) {
+                    load();
+                    mLoaded = true;
+                }
+            }
+        }
+        return mFont;
+    }
+
+    /**
+     * @return the parsed font, or null if the file is not yet parsed or failed to parse
+     */
+    @Nullable
+    public OutlineFont peekOutlineFont() {
+        return mFont;
+    }
+
+    private void load() {
+        final byte[] data = mData;
+        mData = null;
+        if (data == null) {
+            return;
+        }
+        try (var stream = new ByteArrayInputStream(data)) {
+            var family = FontFamily.createFamily(stream, /*register*/false);
+            if (family.getClosestMatch(FontPaint.NORMAL) instanceof OutlineFont font) {
+                mFont = font;
+            }
+        } catch (Exception e) {
+            LOGGER.warn(GlyphManager.MARKER, "Failed to parse font file {}", mName, e);
+        }
+    }
+
+    @Override
+    public int getStyle() {
+        return FontPaint.NORMAL;
+    }
+
+    @Override
+    public String getFullName(@Nonnull Locale locale) {
+        return mName.toString();
+    }
+
+    @Override
+    public String getFamilyName(@Nonnull Locale locale) {
+        return mName.toString();
+    }
+
+    @Override
+    public int getMetrics(@Nonnull FontPaint paint, FontMetricsInt fm) {
+        var font = getOutlineFont();
+        return font != null ? font.getMetrics(paint, fm) : 0;
+    }
+
+    @Override
+    public boolean hasGlyph(int ch, int vs) {
+        var font = getOutlineFont();
+        return font != null && font.hasGlyph(ch, vs);
+    }
+
+    @Override
+    public float doSimpleLayout(char[] buf, int start, int limit,
+                                FontPaint paint, IntArrayList glyphs,
+                                FloatArrayList positions, float x, float y) {
+        var font = getOutlineFont();
+        return font != null ? font.doSimpleLayout(buf, start, limit,
+                paint, glyphs, positions, x, y) : 0;
+    }
+
+    @Override
+    public float doComplexLayout(char[] buf,
+                                 int contextStart, int contextLimit,
+                                 int layoutStart, int layoutLimit,
+                                 boolean isRtl, FontPaint paint,
+                                 IntArrayList glyphs, FloatArrayList positions,
+                                 float[] advances, int advanceOffset,
+                                 Rect bounds, float x, float y) {
+        var font = getOutlineFont();
+        return font != null ? font.doComplexLayout(buf, contextStart, contextLimit,
+                layoutStart, layoutLimit, isRtl, paint, glyphs, positions,
+                advances, advanceOffset, bounds, x, y) : 0;
+    }
+
+    @Override
+    public Typeface getNativeTypeface() {
+        var font = getOutlineFont();
+        return font != null ? font.getNativeTypeface() : null;
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2025 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.mc.text;
+
+import com.mojang.blaze3d.vertex.VertexConsumer;
+import icyllis.modernui.graphics.MathUtil;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import net.minecraft.client.gui.Font;
+import net.minecraft.client.gui.font.glyphs.BakedGlyph;
+import net.minecraft.client.renderer.MultiBufferSource;
+import net.minecraft.client.renderer.rendertype.RenderType;
+import net.minecraft.resources.Identifier;
+import net.minecraft.util.ARGB;
+import org.joml.Matrix4fc;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+
+/**
+ * Retained glyph vertices of a text layout for rendering with {@link MultiBufferSource}
+ * (signs, name tags, text displays, etc.). Vertex positions are relative to the origin
+ * of the text line, so the mesh can be reused wherever the same layout is drawn with the
+ * same color and mode, only the transform and packed light are applied at draw time.
+ * <p>
+ * A mesh is invalidated when the font atlas changes or the render types are recreated,
+ * see {@link #invalidateAll()}.
+ */
+// Only used on render thread
+final class WorldTextMesh {
+
+    /**
+     * Four vertex positions followed by u1 v1 u2 v2.
+     */
+    private static final int STRIDE = 12;
+
+    private static int sGeneration;
+
+    private final int generation;
+    private final float[] quads;
+    private final int color;
+    private final boolean isShadow;
+    private final int preferredMode;
+    private final boolean polygonOffset;
+    private final float shadowOffset;
+    private final float baselineOffset;
+    private final boolean inWorldRendering;
+    private final boolean useTextShadersInWorld;
+
+    private final RenderType[] renderTypes;
+    private final int[] batchEnds;
+    private final float[] vertices;
+    private final int[] colors;
+
+    private WorldTextMesh(float[] quads, int color, boolean isShadow, int preferredMode,
+                          boolean polygonOffset, float shadowOffset,
+                          RenderType[] renderTypes, int[] batchEnds,
+                          float[] vertices, int[] colors) {
+        this.generation = sGeneration;
+        this.quads = quads;
+        this.color = color;
+        this.isShadow = isShadow;
+        this.preferredMode = preferredMode;
+        this.polygonOffset = polygonOffset;
+        this.shadowOffset = shadowOffset;
+        this.baselineOffset = TextLayout.sBaselineOffset;
+        this.inWorldRendering = TextLayoutEngine.sCurrentInWorldRendering;
+        this.useTextShadersInWorld = TextLayoutEngine.sUseTextShadersInWorld;
+        this.renderTypes = renderTypes;
+        this.batchEnds = batchEnds;
+        this.vertices = vertices;
+        this.colors = colors;
+    }
+
+    /**
+     * Invalidate all meshes created so far. Called when glyphs are moved in the font atlas,
+     * or the cached render types are cleared.
+     */
+    static void invalidateAll() {
+        sGeneration++;
+    }
+
+    /**
+     * Build the glyph vertices of the given layout, the arguments are the same as
+     * {@link TextLayout#drawText}, except that r g b a are packed into color.
+     *
+     * @param quads the layout-space glyph quads of the glyph set
+     * @return the mesh, or null if the layout has glyphs that can't be retained
+     * (obfuscated glyphs, atlas sprites or player skins)
+     */
+    @Nullable
+    static WorldTextMesh create(@Nonnull TextLayout layout, @Nonnull BakedGlyph[] glyphs,
+                                @Nonnull float[] quads, int color, boolean isShadow,
+                                int preferredMode, boolean polygonOffset, float shadowOffset) {
+        final int[] flags = layout.getGlyphFlags();
+        final boolean seeThrough = preferredMode == TextRenderType.MODE_SEE_THROUGH;
+        final float baselineOffset = TextLayout.sBaselineOffset;
+        final int startRGB = color & 0xFFFFFF;
+        final int a = color >>> 24;
+
+        final float[] vertices = new float[glyphs.length * STRIDE];
+        final int[] colors = new int[glyphs.length];
+        final var renderTypes = new ArrayList<RenderType>();
+        final var batchEnds = new IntArrayList();
+        int count = 0;
+
+        Identifier prevTexture = null;
+        int prevMode = -1;
+        Font.DisplayMode prevVanillaDisplayMode = null;
+
+        for (int i = 0, e = glyphs.length; i < e; i++) {
+            if (glyphs[i] == null) {
+                continue;
+            }
+            final int bits = flags[i];
+            if (!(glyphs[i] instanceof ModernBakedGlyph) ||
+                    (bits & CharacterStyle.OBFUSCATED_MASK) != 0) {
+                return null;
+            }
+            if ((bits & CharacterStyle.NO_SHADOW_MASK) != 0 && isShadow) {
+                continue;
+            }
+            final Identifier texture;
+            final int mode;
+            Font.DisplayMode vanillaDisplayMode = null;
+            boolean isBitmapFont = false;
+            boolean isColorEmoji = false;
+            float offset = 0;
+            if ((bits & CharacterStyle.ANY_BITMAP_REPLACEMENT) != 0) {
+                if (layout.getFont(i) instanceof BitmapFont bitmapFont) {
+                    texture = bitmapFont.getCurrentTextureName();
+                    isBitmapFont = true;
+                } else {
+                    if (isShadow) {
+                        continue;
+                    }
+                    texture = GlyphManager.EMOJI_SHEET;
+                    isColorEmoji = true;
+                }
+                if (isShadow) {
+                    // bitmap font shadow offset is always 1 pixel
+                    offset = 1.0f - shadowOffset;
+                }
+                mode = seeThrough ? preferredMode : TextRenderType.MODE_NORMAL; // for color emoji
+                if (isBitmapFont) {
+                    vanillaDisplayMode = seeThrough
+                            ? Font.DisplayMode.SEE_THROUGH
+                            : Font.DisplayMode.NORMAL;
+                }
+                if (polygonOffset) {
+                    vanillaDisplayMode = Font.DisplayMode.POLYGON_OFFSET;
+                }
+            } else {
+                mode = preferredMode;
+                texture = GlyphManager.FONT_SHEET;
+            }
+            if (count == 0 || prevTexture != texture || prevMode != mode ||
+                    prevVanillaDisplayMode != vanillaDisplayMode) {
+                if (count != 0) {
+                    batchEnds.add(count);
+                }
+                prevTexture = texture;
+                prevMode = mode;
+                prevVanillaDisplayMode = vanillaDisplayMode;
+                renderTypes.add(vanillaDisplayMode != null
+                        ? TextRenderType.getOrCreate(texture, vanillaDisplayMode, isBitmapFont)
+                        : TextRenderType.getOrCreate(texture, mode));
+            }
+            final int glyphColor;
+            if (isColorEmoji) {
+                glyphColor = ARGB.color(a, 0xFFFFFF);
+            } else if ((bits & CharacterStyle.IMPLICIT_COLOR_MASK) != 0) {
+                glyphColor = ARGB.color(a, startRGB);
+            } else if (isShadow) {
+                glyphColor = ARGB.color(a,
+                        (bits >> 16 & 0xff) >> 2,
+                        (bits >> 8 & 0xff) >> 2,
+                        (bits & 0xff) >> 2);
+            } else {
+                glyphColor = ARGB.color(a, bits & 0xFFFFFF);
+            }
+            final int q = i * TextLayout.QUAD_STRIDE;
+            final float rx = quads[q] + offset;
+            final float ry = baselineOffset + quads[q + 1] + offset;
+            final float w = quads[q + 2];
+            final float h = quads[q + 3];
+            final float upSkew = quads[q + 4];
+            final float downSkew = quads[q + 5];
+            final int v = count * STRIDE;
+            vertices[v] = rx + upSkew;
+            vertices[v + 1] = ry;
+            vertices[v + 2] = rx + downSkew;
+            vertices[v + 3] = ry + h;
+            vertices[v + 4] = rx + w + downSkew;
+            vertices[v + 5] = ry + h;
+            vertices[v + 6] = rx + w + upSkew;
+            vertices[v + 7] = ry;
+            System.arraycopy(quads, q + 6, vertices, v + 8, 4);
+            colors[count++] = glyphColor;
+        }
+        if (count != 0) {
+            batchEnds.add(count);
+        }
+
+        return new WorldTextMesh(quads, color, isShadow, preferredMode, polygonOffset, shadowOffset,
+                renderTypes.toArray(new RenderType[0]), batchEnds.toIntArray(),
+                vertices, colors);
+    }
+
+    /**
+     * @return true if this mesh is still valid for the given arguments
+     */
+    boolean matches(@Nonnull float[] quads, int color, boolean isShadow,
+                    int preferredMode, boolean polygonOffset, float shadowOffset) {
+        return generation == sGeneration &&
+                this.quads == quads &&
+                this.color == color &&
+                this.isShadow == isShadow &&
+                this.preferredMode == preferredMode &&
+                this.polygonOffset == polygonOffset &&
+                this.shadowOffset == shadowOffset &&
+                baselineOffset == TextLayout.sBaselineOffset &&
+                inWorldRendering == TextLayoutEngine.sCurrentInWorldRendering &&
+                useTextShadersInWorld == TextLayoutEngine.sUseTextShadersInWorld;
+    }
+
+    /**
+     * Emit the retained vertices.
+     *
+     * @param matrix      the transform matrix
+     * @param source      the vertex buffer source
+     * @param x           the left pos of the text line, shadow offset included
+     * @param top         the top of the text line, shadow offset included
+     * @param packedLight see {@link net.minecraft.util.LightCoordsUtil}
+     */
+    void draw(@Nonnull Matrix4fc matrix, @Nonnull MultiBufferSource source,
+              float x, float top, int packedLight) {
+        final var vertices = this.vertices;
+        final var colors = this.colors;
+        int i = 0;
+        for (int batch = 0; batch < renderTypes.length; batch++) {
+            VertexConsumer builder = source.getBuffer(renderTypes[batch]);
+            for (int end = batchEnds[batch]; i < end; i++) {
+                final int v = i * STRIDE;
+                final int color = colors[i];
+                final float u1 = vertices[v + 8];
+                final float v1 = vertices[v + 9];
+                final float u2 = vertices[v + 10];
+                final float v2 = vertices[v + 11];
+                builder.addVertex(matrix, x + vertices[v], top + vertices[v + 1], 0)
+                        .setColor(color)
+                        .setUv(u1, v1)
+                        .setLight(packedLight);
+                builder.addVertex(matrix, x + vertices[v + 2], top + vertices[v + 3], 0)
+                        .setColor(color)
+                        .setUv(u1, v2)
+                        .setLight(packedLight);
+                builder.addVertex(matrix, x + vertices[v + 4], top + vertices[v + 5], 0)
+                        .setColor(color)
+                        .setUv(u2, v2)
+                        .setLight(packedLight);
+                builder.addVertex(matrix, x + vertices[v + 6], top + vertices[v + 7], 0)
+                        .setColor(color)
+                        .setUv(u2, v1)
+                        .setLight(packedLight);
+            }
+        }
+    }
+
+    public int getMemorySize() {
+        int m = 64;
+        m += 16 + MathUtil.align8(renderTypes.length << 2);
+        m += 16 + MathUtil.align8(batchEnds.length << 2);
+        m += 16 + MathUtil.align8(vertices.length << 2);
+        m += 16 + MathUtil.align8(colors.length << 2);
+        return m;
+    }
+}
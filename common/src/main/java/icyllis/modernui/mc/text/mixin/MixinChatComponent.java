@@ -0,0 +1,40 @@
+/*
+ * Modern UI.
+ * Copyright (C) 2025 BloCamLimb. All rights reserved.
+ *
+ * Modern UI is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Modern UI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with Modern UI. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package icyllis.modernui.mc.text.mixin;
+
+import icyllis.modernui.mc.text.CachedChatLayer;
+import net.minecraft.client.gui.components.ChatComponent;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+@Mixin(ChatComponent.class)
+public class MixinChatComponent {
+
+    @Inject(method = "extractRenderState", at = @At("HEAD"))
+    private void onExtractRenderStateHead(CallbackInfo ci) {
+        CachedChatLayer.getInstance().begin();
+    }
+
+    @Inject(method = "extractRenderState", at = @At("RETURN"))
+    private void onExtractRenderStateReturn(CallbackInfo ci) {
+        CachedChatLayer.getInstance().end();
+    }
+}
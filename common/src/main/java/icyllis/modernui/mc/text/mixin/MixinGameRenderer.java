@@ -18,13 +18,16 @@
 
 package icyllis.modernui.mc.text.mixin;
 
+import icyllis.modernui.mc.text.ModernTextRenderer;
 import icyllis.modernui.mc.text.TextLayoutEngine;
+import net.minecraft.client.Camera;
 import net.minecraft.client.DeltaTracker;
 import net.minecraft.client.renderer.GameRenderer;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 
 /**
  * Transition if we are rendering 3D world or 2D.
@@ -42,6 +45,15 @@ public class MixinGameRenderer {
         TextLayoutEngine.sCurrentInWorldRendering = true;
     }
 
+    // the level projection, the hand projection doesn't use the FOV setting
+    @Inject(method = "getFov", at = @At("RETURN"))
+    private void onGetFov(Camera camera, float partialTick, boolean useFovSetting,
+                          CallbackInfoReturnable<Float> cir) {
+        if (useFovSetting) {
+            ModernTextRenderer.updateWorldProjection(cir.getReturnValueF());
+        }
+    }
+
     @Inject(method = "renderLevel", at = @At("TAIL"))
     private void renderLevelEnd(DeltaTracker deltaTracker, CallbackInfo ci) {
         TextLayoutEngine.sCurrentInWorldRendering = false;
@@ -271,6 +271,10 @@ public class PreferencesFragment extends Fragment {
                     1, Config.CLIENT.mBlurRadius, onChanged)
                     .create(list, 2);
 
+            new BooleanOption(context, "modernui.center.screen.dualKawaseBlur",
+                    Config.CLIENT.mDualKawaseBlur, onChanged)
+                    .create(list);
+
             new DropDownOption<>(context, "modernui.center.screen.windowMode",
                     Config.Client.WindowMode.values(),
                     Config.CLIENT.mWindowMode, onChanged)
@@ -229,6 +229,7 @@ public final class ConfigImpl {
         public final ModConfigSpec.BooleanValue mOverrideVanillaBlur;
         public final ModConfigSpec.IntValue mBackgroundDuration;
         public final ModConfigSpec.IntValue mBlurRadius;
+        public final ModConfigSpec.BooleanValue mDualKawaseBlur;
         public final ModConfigSpec.ConfigValue<List<? extends String>> mBackgroundColor;
         public final ModConfigSpec.BooleanValue mInventoryPause;
         public final ModConfigSpec.BooleanValue mTooltip;
@@ -261,6 +262,8 @@ public final class ConfigImpl {
         public final ModConfigSpec.BooleanValue mRemoveTelemetry;
         //public final ModConfigSpec.BooleanValue mSecurePublicKey;
         public final ModConfigSpec.IntValue mFramerateInactive;
+        public final ModConfigSpec.IntValue mUiFrameLatency;
+        public final ModConfigSpec.BooleanValue mFrameTimingOverlay;
         //public final ModConfigSpec.IntValue mFramerateMinimized;
         public final ModConfigSpec.DoubleValue mMasterVolumeInactive;
         public final ModConfigSpec.DoubleValue mMasterVolumeMinimized;
@@ -331,6 +334,11 @@ public final class ConfigImpl {
                             "The kernel radius for gaussian convolution blur effect, 0 = disable.",
                             "samples per pixel = ((radius * 2) + 1) * 2, sigma = radius / 2.")
                     .defineInRange("blurRadius", 7, BLUR_RADIUS_MIN, BLUR_RADIUS_MAX);
+            mDualKawaseBlur = builder.comment(
+                            "Whether to use progressive downsampling dual Kawase blur instead of gaussian blur,",
+                            "this has similar look at a fraction of the GPU cost, mostly for high resolution screens.",
+                            "This requires overrideVanillaBlur to be true.")
+                    .define("dualKawaseBlur", false);
             mBlurBlacklist = builder.comment(
                             "A list of GUI screen superclasses that won't activate blur effect when opened.")
                     .defineList("blurBlacklist", () -> {
@@ -344,6 +352,16 @@ public final class ConfigImpl {
             mFramerateInactive = builder.comment(
                             "Framerate limit on window inactive (out of focus), 0 = no change.")
                     .defineInRange("framerateInactive", 60, 0, 250);
+            mUiFrameLatency = builder.comment(
+                            "Maximum number of UI frames that can be recorded ahead of the render thread.",
+                            "1 = the UI thread waits for the render thread on every frame, which has the",
+                            "lowest latency, higher values keep UI animations smooth when the game frame is slow.",
+                            "Frames recorded while the render thread is behind are merged, only one is rendered.")
+                    .defineInRange("uiFrameLatency", 2, 1, 3);
+            mFrameTimingOverlay = builder.comment(
+                            "Show graphs of per-stage frame timings (game stages, UI record, wait and composite)",
+                            "at the top left corner of the screen, for finding out where stutters come from.")
+                    .define("frameTimingOverlay", false);
             /*mFramerateMinimized = builder.comment(
                             "Framerate limit on window minimized, 0 = same as framerate inactive.",
                             "This value will be no greater than framerate inactive.")
@@ -693,6 +711,10 @@ public final class ConfigImpl {
         public final ModConfigSpec.BooleanValue mComputeDeviceFontSize;
         public final ModConfigSpec.BooleanValue mAllowSDFTextIn2D;
         public final ModConfigSpec.BooleanValue mTweakExperienceText;
+        public final ModConfigSpec.BooleanValue mCachedChatLayer;
+        public final ModConfigSpec.BooleanValue mRetainWorldTextMesh;
+        public final ModConfigSpec.IntValue mWorldTextSimplifyHeight;
+        public final ModConfigSpec.IntValue mWorldTextCullHeight;
 
         public final ModConfigSpec.BooleanValue mAntiAliasing;
         public final ModConfigSpec.BooleanValue mLinearMetrics;
@@ -844,6 +866,23 @@ public final class ConfigImpl {
             mTweakExperienceText = builder.comment(
                             "When enabled, the outline of the experience level text will be tweaked.")
                     .define("tweakExperienceText", true);
+            mCachedChatLayer = builder.comment(
+                            "When enabled, chat lines in HUD are rendered into an offscreen layer, which is",
+                            "reused until a message arrives, the chat scrolls or fades, or the GUI scale changes.")
+                    .define("cachedChatLayer", false);
+            mRetainWorldTextMesh = builder.comment(
+                            "When enabled, glyph vertices of text in 3D world (e.g. signs, name tags) are",
+                            "reused across frames as long as its content, color and render mode are unchanged.")
+                    .define("retainWorldTextMesh", true);
+            mWorldTextSimplifyHeight = builder.comment(
+                            "Text in 3D world whose line height on screen is less than this value (in pixels)",
+                            "is drawn with a lower density glyph strike and without shadow or outline.",
+                            "Set to 0 to disable.")
+                    .defineInRange("worldTextSimplifyHeight", 8, 0, 64);
+            mWorldTextCullHeight = builder.comment(
+                            "Text in 3D world whose line height on screen is less than this value (in pixels)",
+                            "is not drawn. Set to 0 to disable.")
+                    .defineInRange("worldTextCullHeight", 0, 0, 64);
             mAntiAliasing = builder.comment(
                             "Control the anti-aliasing of raw glyph rasterization.")
                     .define("antiAliasing", true);